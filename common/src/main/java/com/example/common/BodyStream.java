@@ -0,0 +1,21 @@
+package com.example.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A response body produced piece by piece, sent with {@code Transfer-Encoding: chunked}
+ * ({@link Response#stream}). The server pulls: {@link #next()} is called again only once the previous
+ * piece has been handed to the socket, so a producer never runs further ahead of the client than one
+ * piece, and a connection holds one piece of a body at a time however large the body is.
+ */
+public interface BodyStream {
+    /**
+     * The next piece, or null once the body is complete. Empty pieces are skipped. The buffer's remaining
+     * bytes are sent as they are; it must not be changed until the next call.
+     */
+    CompletionStage<ByteBuffer> next();
+
+    /** The response is over, sent in full or abandoned with the connection. Called once. */
+    default void close() {}
+}
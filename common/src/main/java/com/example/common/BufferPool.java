@@ -0,0 +1,144 @@
+package com.example.common;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct buffers in a few size classes, carved out of large slabs so each class costs one
+ * {@code allocateDirect} per slab instead of one per buffer. Buffers are leased for one read or one
+ * response and released right after, so idle connections hold nothing.
+ *
+ * <p>Thread-safe. Every platform thread keeps a small cache per class in front of a shared depot, which
+ * keeps the common lease/release pair on the event loop thread uncontended. Virtual threads go straight
+ * to the depot: there is one per request, and each cache would die with its thread. Caches of platform
+ * threads that died are emptied into the depot when another thread starts one, or when a class runs out
+ * of budget. Requests above the largest class, or beyond a class's byte budget, get a plain heap buffer
+ * that {@link #release} ignores.
+ */
+public final class BufferPool {
+    /** 512 B headers and small bodies, 4 KiB / 16 KiB reads and responses, 64 KiB largest requests. */
+    public static final BufferPool SHARED = new BufferPool(new int[]{512, 4 * 1024, 16 * 1024, 64 * 1024},
+            1024 * 1024, Long.getLong("server.bufferPool.maxBytes", 256L * 1024 * 1024));
+
+    private static final int LOCAL_CACHE = 32;
+
+    /** {@code Thread.isVirtual()}, where the runtime has it. */
+    private static final Method IS_VIRTUAL = isVirtualMethod();
+
+    private final int[] sizes;
+    private final int slabBytes;
+    private final long maxBytesPerClass;
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> depots = new ArrayList<>();
+    private final AtomicLong[] reserved; // slab bytes allocated per class
+    private final ThreadLocal<Cache> local;
+    private final ConcurrentLinkedQueue<Cache> caches = new ConcurrentLinkedQueue<>(); // of every platform thread that leased
+
+    /** One thread's buffers, one deque per class; only its owner touches them while it lives. */
+    private static final class Cache {
+        final Thread owner = Thread.currentThread();
+        final List<ArrayDeque<ByteBuffer>> classes = new ArrayList<>();
+
+        Cache(int n) {
+            for (int i = 0; i < n; i++) classes.add(new ArrayDeque<>(LOCAL_CACHE));
+        }
+    }
+
+    public BufferPool(int[] sizes, int slabBytes, long maxBytes) {
+        this.sizes = sizes.clone();
+        this.slabBytes = slabBytes;
+        this.maxBytesPerClass = maxBytes / sizes.length;
+        this.reserved = new AtomicLong[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            depots.add(new ConcurrentLinkedQueue<>());
+            reserved[i] = new AtomicLong();
+        }
+        this.local = ThreadLocal.withInitial(() -> {
+            if (isVirtual(Thread.currentThread())) return null;
+            reclaim();
+            Cache c = new Cache(this.sizes.length);
+            caches.add(c);
+            return c;
+        });
+    }
+
+    /** Largest pooled capacity. */
+    public int maxPooled() { return sizes[sizes.length - 1]; }
+
+    /** A cleared buffer with capacity of at least {@code minCapacity}. */
+    public ByteBuffer lease(int minCapacity) {
+        int c = classOf(minCapacity);
+        if (c < 0) return ByteBuffer.allocate(minCapacity);
+        Cache cache = local.get();
+        ByteBuffer b = cache == null ? null : cache.classes.get(c).pollLast();
+        if (b == null) b = depots.get(c).poll();
+        if (b == null) b = grow(c);
+        if (b == null) return ByteBuffer.allocate(minCapacity);
+        return b.clear();
+    }
+
+    /** Return a leased buffer. Heap fallbacks, read-only views and {@code null} are ignored. */
+    public void release(ByteBuffer b) {
+        if (b == null || !b.isDirect() || b.isReadOnly()) return;
+        int c = classOf(b.capacity());
+        if (c < 0 || sizes[c] != b.capacity()) return;
+        Cache cache = local.get();
+        if (cache != null && cache.classes.get(c).size() < LOCAL_CACHE) cache.classes.get(c).addLast(b);
+        else depots.get(c).offer(b);
+    }
+
+    /** Move the buffers cached by threads that have died back into the depots. */
+    private void reclaim() {
+        for (Cache cache : caches) {
+            // isAlive() returning false orders the dead thread's last writes to its deques before our reads.
+            if (cache.owner.isAlive() || !caches.remove(cache)) continue;
+            for (int i = 0; i < sizes.length; i++) {
+                for (ByteBuffer b; (b = cache.classes.get(i).poll()) != null; ) depots.get(i).offer(b);
+            }
+        }
+    }
+
+    private int classOf(int capacity) {
+        for (int i = 0; i < sizes.length; i++) if (capacity <= sizes[i]) return i;
+        return -1;
+    }
+
+    /** Carve a fresh slab into buffers of class {@code c}; keeps one, parks the rest in the depot. */
+    private ByteBuffer grow(int c) {
+        int size = sizes[c];
+        int bytes = Math.max(size, slabBytes / size * size);
+        if (reserved[c].addAndGet(bytes) > maxBytesPerClass) {
+            reserved[c].addAndGet(-bytes);
+            reclaim(); // out of budget: perhaps it is stranded in a dead thread's cache
+            return depots.get(c).poll();
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(bytes);
+        ByteBuffer first = null;
+        for (int off = 0; off < bytes; off += size) {
+            ByteBuffer b = slab.slice(off, size);
+            if (first == null) first = b;
+            else depots.get(c).offer(b);
+        }
+        return first;
+    }
+
+    private static Method isVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null; // before Java 21: every thread is a platform thread
+        }
+    }
+
+    private static boolean isVirtual(Thread t) {
+        try {
+            return IS_VIRTUAL != null && (Boolean) IS_VIRTUAL.invoke(t);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Chunked transfer coding framing: {@code <hex size> CRLF <data> CRLF}, ended by a zero-size chunk. */
+public final class Chunks {
+    public static final byte[] CRLF = {'\r', '\n'};
+    /** Last chunk and the empty trailer. */
+    public static final byte[] LAST = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    /** Longest size line: 16 hex digits and CRLF, plus the CRLF closing the previous chunk. */
+    public static final int MAX_LINE = 20;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private Chunks() {}
+
+    /** Size line for a {@code size}-byte chunk into {@code dst} at {@code off}; returns the offset past it. */
+    public static int size(byte[] dst, int off, long size) {
+        int digits = Math.max(1, (67 - Long.numberOfLeadingZeros(size)) / 4);
+        for (int i = digits - 1; i >= 0; i--) dst[off++] = HEX[(int) (size >>> (i * 4)) & 0xf];
+        dst[off++] = '\r';
+        dst[off++] = '\n';
+        return off;
+    }
+
+    /** Size line at {@code dst}'s position, advancing it. */
+    public static void size(ByteBuffer dst, long size) {
+        int digits = Math.max(1, (67 - Long.numberOfLeadingZeros(size)) / 4);
+        for (int i = digits - 1; i >= 0; i--) dst.put(HEX[(int) (size >>> (i * 4)) & 0xf]);
+        dst.put(CRLF);
+    }
+}
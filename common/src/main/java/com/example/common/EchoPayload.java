@@ -0,0 +1,53 @@
+package com.example.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The {@code /echo} body, filled once at startup instead of per request. NIO servers send read-only
+ * slices of one direct region; blocking servers write straight from one shared array. Sizes above
+ * {@link #MAX} repeat the region, so no size ever needs a buffer of its own.
+ */
+public final class EchoPayload {
+    /** Size of the precomputed region, {@code -Dserver.echo.maxBytes} (default 1 MiB). */
+    public static final int MAX = Math.max(1, Integer.getInteger("server.echo.maxBytes", 1024 * 1024));
+
+    private static final byte[] BYTES = new byte[MAX];
+    private static final ByteBuffer DIRECT;
+
+    static {
+        Arrays.fill(BYTES, (byte) 'A');
+        ByteBuffer b = ByteBuffer.allocateDirect(MAX);
+        b.put(BYTES).flip();
+        DIRECT = b.asReadOnlyBuffer();
+    }
+
+    private EchoPayload() {}
+
+    /** Read-only view of the first {@code size} payload bytes, at most {@link #MAX}. */
+    public static ByteBuffer slice(int size) { return DIRECT.slice(0, Math.min(size, MAX)); }
+
+    /** {@code header} followed by read-only slices covering {@code size} payload bytes, for a gathering write. */
+    public static ByteBuffer[] withHeader(ByteBuffer header, long size) {
+        size = Math.max(0, size);
+        int n = (int) ((size + MAX - 1) / MAX);
+        ByteBuffer[] out = new ByteBuffer[n + 1];
+        out[0] = header;
+        for (int i = 1; i <= n; i++, size -= MAX) out[i] = DIRECT.slice(0, (int) Math.min(size, MAX));
+        return out;
+    }
+
+    /** Copy up to {@code size} payload bytes into {@code dst} at {@code off}; returns how many fit. */
+    public static int fill(byte[] dst, int off, long size) {
+        int n = (int) Math.min(Math.max(0, size), dst.length - off);
+        System.arraycopy(BYTES, 0, dst, off, n);
+        return n;
+    }
+
+    /** Write {@code size} payload bytes to {@code out}. */
+    public static void writeTo(OutputStream out, long size) throws IOException {
+        for (; size > 0; size -= MAX) out.write(BYTES, 0, (int) Math.min(size, MAX));
+    }
+}
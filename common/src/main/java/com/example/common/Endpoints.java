@@ -0,0 +1,71 @@
+package com.example.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The benchmark endpoints, defined once for every server so each architecture pays the same handler
+ * cost. CPU time is a busy spin and "IO" is a plain delay, both through the server's {@link Env}.
+ */
+public final class Endpoints {
+    private Endpoints() {}
+
+    /**
+     * {@code /echo?size=N}, {@code /cpu?ms=N}, {@code /io-slow?ms=N}, {@code /mixed?cpuMs=A&ioMs=B},
+     * {@code /stream?size=N&chunk=K&delayMs=D} (N echo bytes, chunked, K at a time, D ms apart), {@code /metrics}, files under {@code server.static.dir} at {@code /static/*}, and "ok" for any other path.
+     */
+    public static Router.Builder standard() {
+        return Router.builder()
+                .sync("/echo", req -> Response.echo(req.queryInt("size", 1024)))
+                .async("/cpu", ResponseCache.forRoute("/cpu", (req, env) -> {
+                    int ms = req.queryInt("ms", 5);
+                    return env.offload(() -> {
+                        busySpin(ms);
+                        return Response.text("cpu=" + ms + "ms");
+                    });
+                }))
+                .async("/io-slow", (req, env) -> {
+                    int ms = req.queryInt("ms", 20);
+                    return env.delay(ms).thenApply(v -> Response.text("io=" + ms + "ms"));
+                })
+                .async("/mixed", ResponseCache.forRoute("/mixed", (req, env) -> {
+                    int cpu = req.queryInt("cpuMs", 5);
+                    int io = req.queryInt("ioMs", 5);
+                    return env.offload(() -> { busySpin(cpu); return null; })
+                            .thenCompose(v -> env.delay(io))
+                            .thenApply(v -> Response.text("mixed cpu=" + cpu + "ms io=" + io + "ms"));
+                }))
+                .async("/stream", (req, env) -> {
+                    BodyStream body = payloadStream(req.queryInt("size", 1024 * 1024), req.queryInt("chunk", 16 * 1024),
+                            req.queryInt("delayMs", 0), env);
+                    return CompletableFuture.completedFuture(Response.stream("application/octet-stream", body));
+                })
+                .sync("/metrics", req -> Response.ok(Metrics.SHARED.render()))
+                .prefix("/static/", StaticFiles.fromProperties("/static/"))
+                .fallback("other", (Handler.Sync) req -> Response.text("ok"));
+    }
+
+    /** {@code size} bytes of the echo payload in pieces of {@code chunk}, each produced {@code delayMs} after it is asked for. */
+    private static BodyStream payloadStream(int size, int chunk, int delayMs, Env env) {
+        int piece = Math.max(1, chunk);
+        return new BodyStream() {
+            private long left = Math.max(0, size);
+
+            @Override public CompletionStage<ByteBuffer> next() {
+                if (left == 0) return CompletableFuture.completedFuture(null);
+                ByteBuffer next = EchoPayload.slice((int) Math.min(left, piece));
+                left -= next.remaining();
+                return delayMs > 0 ? env.delay(delayMs).thenApply(v -> next) : CompletableFuture.completedFuture(next);
+            }
+        };
+    }
+
+    public static void busySpin(int ms) {
+        long end = System.nanoTime() + ms * 1_000_000L;
+        long x = 0;
+        while (System.nanoTime() < end) {
+            x += 1; // prevent JIT optimizing away
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/** How an {@link Handler.Async} handler waits and computes; each server supplies its own. */
+public interface Env {
+    /** Completes after {@code ms} milliseconds. */
+    CompletionStage<Void> delay(long ms);
+
+    /** Runs {@code work} where CPU-bound work belongs on this server and completes with its result. */
+    <T> CompletionStage<T> offload(Supplier<T> work);
+
+    /** For thread-per-connection servers: everything happens on the calling thread, so stages are already complete. */
+    Env BLOCKING = new Env() {
+        @Override public CompletionStage<Void> delay(long ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override public <T> CompletionStage<T> offload(Supplier<T> work) {
+            return CompletableFuture.completedFuture(work.get());
+        }
+    };
+}
@@ -0,0 +1,21 @@
+package com.example.common;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Endpoint logic, written once and run by every server. {@link Sync} handlers answer on the calling
+ * thread and must not block; {@link Async} handlers get an {@link Env} for delays and CPU work, so
+ * the same code sleeps a worker thread on the blocking servers and arms a timer on the event loop.
+ */
+public sealed interface Handler permits Handler.Sync, Handler.Async {
+
+    @FunctionalInterface
+    non-sealed interface Sync extends Handler {
+        Response handle(Request req);
+    }
+
+    @FunctionalInterface
+    non-sealed interface Async extends Handler {
+        CompletionStage<Response> handle(Request req, Env env);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-encoded response head for one (status, content type, keep-alive) combination. Everything but
+ * the Content-Length digits is encoded once; {@link #encode} only copies bytes and writes the number.
+ * {@link #chunked} heads announce {@code Transfer-Encoding: chunked} instead and have no number at all;
+ * {@link #withoutLength} heads announce neither.
+ */
+public final class HeaderTemplate {
+    private static final ConcurrentHashMap<String, HeaderTemplate> CACHE = new ConcurrentHashMap<>();
+    private static final int MAX_DIGITS = 19; // Long.MAX_VALUE
+
+    private static final String LENGTH = "Content-Length: ", CHUNKED = "Transfer-Encoding: chunked", NONE = "";
+
+    private final int status;
+    private final boolean sized; // encode() writes the Content-Length digits
+    private final byte[] head; // status line, Content-Type, "Content-Length: " (or the whole Transfer-Encoding line, or nothing)
+    private final byte[] tail; // CRLF ending the framing line, if any; Connection; blank line
+
+    /** {@code framing}: one of LENGTH, CHUNKED or NONE; {@code contentType} null for none. */
+    private HeaderTemplate(int code, String reason, String contentType, boolean keepAlive, String extra, String framing) {
+        this.status = code;
+        this.sized = framing.equals(LENGTH);
+        this.head = ("HTTP/1.1 " + code + " " + reason + "\r\n" +
+                (contentType == null ? "" : "Content-Type: " + contentType + "\r\n") +
+                extra +
+                framing).getBytes(StandardCharsets.US_ASCII);
+        this.tail = ((framing.isEmpty() ? "" : "\r\n") + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Cached template; hold on to the result for hot paths rather than calling this per request. */
+    public static HeaderTemplate of(int code, String reason, String contentType, boolean keepAlive) {
+        return of(code, reason, contentType, keepAlive, "");
+    }
+
+    /** As above, with fixed extra header lines, each ending in CRLF (e.g. {@code "Retry-After: 1\r\n"}). */
+    public static HeaderTemplate of(int code, String reason, String contentType, boolean keepAlive, String extra) {
+        return CACHE.computeIfAbsent(code + " " + reason + "|" + contentType + "|" + keepAlive + "|" + extra,
+                k -> new HeaderTemplate(code, reason, contentType, keepAlive, extra, LENGTH));
+    }
+
+    /** Cached head for a {@link BodyStream} body; {@link #encode} ignores the length. */
+    public static HeaderTemplate chunked(int code, String reason, String contentType, boolean keepAlive) {
+        return CACHE.computeIfAbsent(code + " " + reason + "|" + contentType + "|" + keepAlive + "|chunked",
+                k -> new HeaderTemplate(code, reason, contentType, keepAlive, "", CHUNKED));
+    }
+
+    /**
+     * Not cached, for heads that vary with the resource (a file's ETag, a Content-Range); build them once
+     * per resource where possible rather than per request.
+     */
+    public static HeaderTemplate uncached(int code, String reason, String contentType, boolean keepAlive, String extra) {
+        return new HeaderTemplate(code, reason, contentType, keepAlive, extra, LENGTH);
+    }
+
+    /**
+     * Not cached, for a status that has no body and must not claim one: a 304 carries no Content-Type and
+     * no Content-Length (which would otherwise say 0 rather than the resource's length, RFC 9110 8.6).
+     * {@link #encode} ignores the length.
+     */
+    public static HeaderTemplate withoutLength(int code, String reason, boolean keepAlive, String extra) {
+        return new HeaderTemplate(code, reason, null, keepAlive, extra, NONE);
+    }
+
+    public int status() { return status; }
+
+    /** Upper bound of the encoded length for any Content-Length. */
+    public int maxLength() { return head.length + MAX_DIGITS + tail.length; }
+
+    /** Encode into {@code dst} at {@code off}; returns the offset just past the head. */
+    public int encode(byte[] dst, int off, long contentLength) {
+        System.arraycopy(head, 0, dst, off, head.length);
+        off += head.length;
+        int digits = sized ? digits(contentLength) : 0;
+        for (int i = off + digits - 1; i >= off; i--) { dst[i] = (byte) ('0' + contentLength % 10); contentLength /= 10; }
+        off += digits;
+        System.arraycopy(tail, 0, dst, off, tail.length);
+        return off + tail.length;
+    }
+
+    /** Encode at {@code dst}'s position and advance it. */
+    public void encode(ByteBuffer dst, long contentLength) {
+        dst.put(head);
+        int pos = dst.position(), digits = sized ? digits(contentLength) : 0;
+        for (int i = pos + digits - 1; i >= pos; i--) { dst.put(i, (byte) ('0' + contentLength % 10)); contentLength /= 10; }
+        dst.position(pos + digits);
+        dst.put(tail);
+    }
+
+    private static int digits(long v) {
+        int n = 1;
+        while (v >= 10) { v /= 10; n++; }
+        return n;
+    }
+}
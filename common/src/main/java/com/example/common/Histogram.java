@@ -0,0 +1,83 @@
+package com.example.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, allocation-free latency histogram in the HDR style: log-linear buckets with
+ * {@value #SUB} linear sub-buckets per power of two, so every recorded value is kept within ~6%.
+ * Counts are striped by thread so recorders on different cores rarely share a cache line; a
+ * {@link #snapshot()} merges the stripes.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40; // values are clamped below 2^40 ns (~18 min)
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS) * SUB + SUB;
+    private static final int STRIPES = Integer.highestOneBit(Math.min(8, Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES]; // BUCKETS counts, then the sum
+
+    public Histogram() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new AtomicLongArray(BUCKETS + 1);
+    }
+
+    /** Record one value (nanoseconds for latencies). Negative values count as zero. */
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, (1L << MAX_EXP) - 1));
+        AtomicLongArray s = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        s.getAndIncrement(index(value));
+        s.getAndAdd(BUCKETS, value);
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return shift * SUB + (int) (v >>> shift);
+    }
+
+    /** Midpoint of the values that land in bucket {@code idx}. */
+    private static long value(int idx) {
+        if (idx < 2 * SUB) return idx;
+        int shift = idx / SUB - 1;
+        long lo = (long) (idx % SUB + SUB) << shift;
+        return lo + (1L << shift) / 2;
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (AtomicLongArray s : stripes) {
+            for (int i = 0; i < BUCKETS; i++) counts[i] += s.get(i);
+            sum += s.get(BUCKETS);
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    /** Point-in-time merged view; cheap to query repeatedly. */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count, sum;
+
+        private Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            long c = 0;
+            for (long n : counts) c += n;
+            this.count = c;
+            this.sum = sum;
+        }
+
+        public long count() { return count; }
+
+        public long sum() { return sum; }
+
+        /** Value at quantile {@code q} in [0, 1]; 0 when empty. */
+        public long quantile(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return value(i);
+            }
+            return value(counts.length - 1);
+        }
+    }
+}
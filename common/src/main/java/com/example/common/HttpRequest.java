@@ -0,0 +1,76 @@
+package com.example.common;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A request read by {@link RequestReader}: decoded path and query, lower-cased header names, full body. */
+public final class HttpRequest implements Request {
+    private final String method;
+    private final String path, queryString;
+    private final Map<String, String> query;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final boolean keepAlive;
+
+    HttpRequest(String method, String target, String version, Map<String, String> headers, byte[] body) {
+        this.method = method;
+        this.headers = headers;
+        this.body = body;
+        this.keepAlive = keepAlive(version, headers.get("connection"));
+        String p = target, qStr = "";
+        int qi = target.indexOf('?');
+        if (qi >= 0) { p = target.substring(0, qi); qStr = target.substring(qi + 1); }
+        this.path = p;
+        this.queryString = qStr;
+        this.query = parseQuery(qStr);
+    }
+
+    @Override public String method() { return method; }
+
+    @Override public String path() { return path; }
+
+    @Override public String queryString() { return queryString; }
+
+    @Override public int queryInt(String name, int def) {
+        String v = query.get(name);
+        try { return v == null ? def : Integer.parseInt(v); } catch (NumberFormatException e) { return def; }
+    }
+
+    @Override public String query(String name) { return query.get(name); }
+
+    @Override public String header(String name) { return headers.get(name.toLowerCase()); }
+
+    public byte[] body() { return body; }
+
+    /** Whether the connection stays open after the response, see {@link #keepAlive(String, String)}. */
+    public boolean keepAlive() { return keepAlive; }
+
+    /**
+     * HTTP/1.1 connections persist unless the request says {@code Connection: close}; HTTP/1.0 ones (and
+     * requests without a version) only with {@code Connection: keep-alive}. Header values compare whole,
+     * ignoring case.
+     */
+    public static boolean keepAlive(String version, String connection) {
+        if (version.equals("HTTP/1.0") || version.isEmpty()) return "keep-alive".equalsIgnoreCase(connection);
+        return !"close".equalsIgnoreCase(connection);
+    }
+
+    private static Map<String, String> parseQuery(String q) {
+        Map<String, String> m = new HashMap<>();
+        if (q.isEmpty()) return m;
+        for (String kv : q.split("&")) {
+            int i = kv.indexOf('=');
+            if (i > 0) m.put(urlDecode(kv.substring(0, i)), urlDecode(kv.substring(i + 1)));
+            else if (!kv.isEmpty()) m.put(urlDecode(kv), "");
+        }
+        return m;
+    }
+
+    private static String urlDecode(String s) {
+        try {
+            return URLDecoder.decode(s, StandardCharsets.UTF_8);
+        } catch (Exception e) { return s; }
+    }
+}
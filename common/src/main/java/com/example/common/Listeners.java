@@ -0,0 +1,91 @@
+package com.example.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listening sockets for every server. With {@code -Pserver.shards=K} (K &gt; 1) a server opens K sockets
+ * on the same port with {@code SO_REUSEPORT}, each with its own accept and serving loop, and the kernel
+ * spreads new connections across them instead of funnelling every accept through one thread.
+ */
+public final class Listeners {
+    /** Listening sockets per server; 1 is the classic single listener. */
+    public static final int SHARDS = Math.max(1, Integer.getInteger("server.shards", 1));
+
+    /** Pause after a failed accept; the usual causes (EMFILE, ENFILE) last until some connections close. */
+    public static final long ACCEPT_BACKOFF_MS = 50;
+
+    private static final LongAdder ACCEPT_ERRORS = Metrics.SHARED.counter("accept_errors", "Failed accepts (e.g. out of file descriptors); the listener stays open.");
+
+    private Listeners() {}
+
+    /**
+     * Blocking accept that outlives failed accepts: each is counted and logged, and retried after
+     * {@link #ACCEPT_BACKOFF_MS}. Throws only once {@code server} is closed, or when interrupted.
+     */
+    public static Socket accept(ServerSocket server) throws IOException {
+        while (true) {
+            try {
+                return server.accept();
+            } catch (IOException e) {
+                if (server.isClosed()) throw e;
+                acceptFailed(Thread.currentThread().getName(), e);
+                try {
+                    Thread.sleep(ACCEPT_BACKOFF_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while backing off from a failed accept");
+                }
+            }
+        }
+    }
+
+    /** Count and log a failed accept; the caller keeps its listener and tries again after {@link #ACCEPT_BACKOFF_MS}. */
+    public static void acceptFailed(String who, Exception e) {
+        ACCEPT_ERRORS.increment();
+        System.err.println("[" + who + "] accept failed, retrying in " + ACCEPT_BACKOFF_MS + " ms: " + e.getMessage());
+    }
+
+    /** Bound blocking listener; {@code SO_REUSEPORT} is set when sharding. */
+    public static ServerSocket serverSocket(int port, int backlog) throws IOException {
+        ServerSocket s = new ServerSocket();
+        try {
+            s.setReuseAddress(true);
+            if (SHARDS > 1) {
+                if (!s.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) throw unsupported();
+                s.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            s.bind(new InetSocketAddress(port), backlog);
+            return s;
+        } catch (IOException | RuntimeException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    /** Bound NIO listener, still in blocking mode; {@code SO_REUSEPORT} is set when sharding. */
+    public static ServerSocketChannel channel(int port, int backlog) throws IOException {
+        ServerSocketChannel ch = ServerSocketChannel.open();
+        try {
+            if (SHARDS > 1) {
+                if (!ch.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) throw unsupported();
+                ch.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            ch.bind(new InetSocketAddress(port), backlog);
+            return ch;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    private static IOException unsupported() {
+        return new IOException("server.shards=" + SHARDS + " needs SO_REUSEPORT, which this platform does not support");
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server-side instrumentation, one registry per JVM ({@link #SHARED}): per-route latency histograms
+ * for each {@link Stage}, plus counters and gauges, rendered in the Prometheus text format on
+ * {@code /metrics}. Registration happens at startup; the hot path only touches the returned
+ * {@link Route} or {@link LongAdder}, neither of which locks or allocates.
+ */
+public final class Metrics {
+    public static final Metrics SHARED = new Metrics();
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** Where a request's time goes. */
+    public enum Stage {
+        /** Waiting for a worker: executor queue, offload queue, loop completion queue. */
+        QUEUE,
+        /** Turning bytes into a request. */
+        PARSE,
+        /** Route logic until the response is ready, including its own sleeps. */
+        HANDLER,
+        /** From response ready until the last byte is handed to the socket. */
+        WRITE;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Histograms of one route, one per stage. */
+    public static final class Route {
+        private final String name;
+        private final Histogram[] stages = new Histogram[Stage.values().length];
+
+        private Route(String name) {
+            this.name = name;
+            for (int i = 0; i < stages.length; i++) stages[i] = new Histogram();
+        }
+
+        public void record(Stage stage, long nanos) { stages[stage.ordinal()].record(nanos); }
+    }
+
+    private record Gauge(String help, LongSupplier value) {}
+
+    private record Counter(String help, LongAdder value) {}
+
+    private final Map<String, Route> routes = new ConcurrentSkipListMap<>();
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+    /** Histograms for {@code name}, created on first use. */
+    public Route route(String name) { return routes.computeIfAbsent(name, Route::new); }
+
+    /** Monotonic counter; exported as {@code server_<name>_total}. */
+    public LongAdder counter(String name, String help) {
+        return counters.computeIfAbsent(name, k -> new Counter(help, new LongAdder())).value();
+    }
+
+    /** Value sampled at scrape time; exported as {@code server_<name>}. */
+    public void gauge(String name, String help, LongSupplier value) { gauges.put(name, new Gauge(help, value)); }
+
+    public byte[] render() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP server_request_seconds Server-side request latency by route and stage.\n")
+          .append("# TYPE server_request_seconds summary\n");
+        for (Route r : routes.values()) {
+            for (Stage stage : Stage.values()) {
+                Histogram.Snapshot s = r.stages[stage.ordinal()].snapshot();
+                if (s.count() == 0) continue;
+                String labels = "route=\"" + r.name + "\",stage=\"" + stage.label + "\"";
+                for (double q : QUANTILES) {
+                    sb.append("server_request_seconds{").append(labels).append(",quantile=\"").append(q).append("\"} ")
+                      .append(seconds(s.quantile(q))).append('\n');
+                }
+                sb.append("server_request_seconds_sum{").append(labels).append("} ").append(seconds(s.sum())).append('\n');
+                sb.append("server_request_seconds_count{").append(labels).append("} ").append(s.count()).append('\n');
+            }
+        }
+        counters.forEach((name, c) -> sb.append("# HELP server_").append(name).append("_total ").append(c.help()).append('\n')
+                .append("# TYPE server_").append(name).append("_total counter\n")
+                .append("server_").append(name).append("_total ").append(c.value().sum()).append('\n'));
+        gauges.forEach((name, g) -> sb.append("# HELP server_").append(name).append(' ').append(g.help()).append('\n')
+                .append("# TYPE server_").append(name).append(" gauge\n")
+                .append("server_").append(name).append(' ').append(g.value().getAsLong()).append('\n'));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String seconds(long nanos) { return Double.toString(nanos / 1e9); }
+}
@@ -0,0 +1,24 @@
+package com.example.common;
+
+/**
+ * The parts of a request a {@link Handler} may look at. Implementations may be views over a
+ * connection's read buffer: read what you need before {@code handle} returns, not from a callback.
+ */
+public interface Request {
+    String method();
+
+    /** Path without the query string. */
+    String path();
+
+    /** Query string as sent, without the '?'; empty when there is none. */
+    String queryString();
+
+    /** Integer query parameter, or {@code def} when absent or not a number. */
+    int queryInt(String name, int def);
+
+    /** Decoded query parameter, or null. */
+    String query(String name);
+
+    /** Case-insensitive header lookup, or null. */
+    String header(String name);
+}
@@ -0,0 +1,125 @@
+package com.example.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The request loop of a thread-per-connection server: read, route, run the handler on the calling
+ * thread, write, record stage metrics and trace events, then the next request on the same connection.
+ * The servers differ only in how they get a thread to a connection and in what may hold a request back
+ * before its handler, which their {@link Hooks} decide.
+ */
+public final class RequestLoop {
+    /** A keep-alive connection that sends nothing for this long is closed. */
+    public static final int IDLE_TIMEOUT_MS = 15000;
+
+    private static final Response BUSY = Response.of(503, "Service Unavailable", "text/plain", "Retry-After: 1\r\n",
+            "busy".getBytes(StandardCharsets.US_ASCII));
+    private static final Response BAD_REQUEST = Response.of(400, "Bad Request", "text/plain",
+            "Bad Request".getBytes(StandardCharsets.US_ASCII));
+    private static final Response ERROR = Response.of(500, "Internal Server Error", "text/plain",
+            "error".getBytes(StandardCharsets.US_ASCII));
+
+    /** What a server adds around each request; every method defaults to doing nothing. */
+    public interface Hooks {
+        Hooks NONE = new Hooks() {};
+
+        /** Whether {@code ep}'s requests wait in {@link #admit()} before their handler. */
+        default boolean gated(Router.Endpoint ep) { return false; }
+
+        /** Trace name of the queue gated requests wait in. */
+        default String queue() { return "admission"; }
+
+        /** Wait for room to run a gated handler; false turns the request away with a 503. */
+        default boolean admit() throws InterruptedException { return true; }
+
+        /** A gated handler returned. */
+        default void release() {}
+
+        /** A response went out, {@code nanos} after its request was routed. */
+        default void served(long nanos) {}
+    }
+
+    private final Router router;
+    private final Hooks hooks;
+
+    public RequestLoop(Router router, Hooks hooks) {
+        this.router = router;
+        this.hooks = hooks;
+    }
+
+    /**
+     * Serve {@code sock} until the client closes it, goes idle, asks for the connection to end (see
+     * {@link HttpRequest#keepAlive()}) or sends a request that cannot be framed (answered 400).
+     * {@code queuedNanos}: time the connection waited for a thread, charged to its first request; -1 when
+     * it did not wait. The caller closes the socket.
+     */
+    public void serve(Socket sock, long connId, long queuedNanos) throws IOException {
+        sock.setSoTimeout(IDLE_TIMEOUT_MS);
+        RequestReader reader = new RequestReader(sock.getInputStream());
+        OutputStream out = sock.getOutputStream();
+        byte[] scratch = new byte[8 * 1024]; // header + small body go out in one write
+        try {
+            while (true) {
+                HttpRequest req;
+                try {
+                    req = reader.next();
+                } catch (ProtocolException e) {
+                    BAD_REQUEST.writeTo(out, scratch, false);
+                    return;
+                }
+                if (req == null) return; // client closed
+                boolean keepAlive = req.keepAlive();
+                Router.Endpoint ep = router.lookup(req.path());
+                Metrics.Route m = ep.metrics();
+                if (queuedNanos >= 0) {
+                    m.record(Metrics.Stage.QUEUE, queuedNanos);
+                    queuedNanos = -1;
+                }
+                m.record(Metrics.Stage.PARSE, reader.parseNanos());
+                long id = Trace.nextId();
+                Trace.parsed(connId, id, ep.name(), reader.parseNanos());
+                long start = System.nanoTime();
+                boolean gated = hooks.gated(ep);
+                if (gated) {
+                    Trace.enqueued(connId, id, hooks.queue());
+                    if (!hooks.admit()) {
+                        Trace.dequeued(connId, id, hooks.queue()); // shed: close the span as the loop servers do
+                        BUSY.writeTo(out, scratch, keepAlive);
+                        if (keepAlive) continue;
+                        return;
+                    }
+                    Trace.dequeued(connId, id, hooks.queue());
+                }
+                long admitted = System.nanoTime();
+                Response res;
+                Trace.handlerStarted(id);
+                try {
+                    res = ep.call(req, Env.BLOCKING);
+                } catch (RuntimeException e) {
+                    res = ERROR;
+                } finally {
+                    if (gated) hooks.release();
+                }
+                Trace.handlerEnded(id);
+                long ready = System.nanoTime();
+                res.writeTo(out, scratch, keepAlive);
+                Trace.written(id);
+                long done = System.nanoTime();
+                if (gated) m.record(Metrics.Stage.QUEUE, admitted - start);
+                m.record(Metrics.Stage.HANDLER, ready - admitted);
+                m.record(Metrics.Stage.WRITE, done - ready);
+                hooks.served(done - start);
+                if (!keepAlive) return; // the response said Connection: close
+            }
+        } catch (SocketTimeoutException e) {
+            // idle keep-alive connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-connection request reader for the blocking servers. Reads the socket in bulk into one reusable
+ * array and scans it for the end of the head, instead of one {@code InputStream.read()} per byte.
+ * Bytes past the current request (pipelined requests, early body bytes) stay buffered for the next
+ * call, so nothing is lost across the keep-alive loop.
+ */
+public final class RequestReader {
+    private static final int INITIAL = 8 * 1024, MAX_HEAD = 64 * 1024;
+    /** Largest request body read into memory; the endpoints ignore bodies, so this only bounds what a client can make us hold. */
+    static final int MAX_BODY = 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[INITIAL];
+    private int pos, limit; // unread bytes are buf[pos, limit)
+    private long parseNanos;
+
+    public RequestReader(InputStream in) { this.in = in; }
+
+    /** Time the last {@link #next()} spent parsing the head, excluding waits for bytes and the body. */
+    public long parseNanos() { return parseNanos; }
+
+    /**
+     * Next request, or null when the client closed cleanly or sent a malformed request line. Throws
+     * {@link ProtocolException} when the body cannot be framed (a Content-Length that is not a plain
+     * number, repeated, or over {@value #MAX_BODY} bytes, or any Transfer-Encoding); the stream is then
+     * out of step and the connection must be closed.
+     */
+    public HttpRequest next() throws IOException {
+        int scanned = 0, end; // bytes after pos already known not to start the terminator
+        while ((end = headEnd(pos + scanned)) < 0) {
+            scanned = Math.max(0, limit - pos - 3);
+            if (!fill()) {
+                if (limit == pos) return null; // closed between requests
+                throw new EOFException("Unexpected EOF in header");
+            }
+        }
+        return parseHead(pos, end);
+    }
+
+    /** Index just past CRLFCRLF at or after {@code from}, or -1. */
+    private int headEnd(int from) {
+        byte[] b = buf;
+        for (int i = from; i + 3 < limit; i++) {
+            if (b[i + 3] != '\n') continue;
+            if (b[i] == '\r' && b[i + 1] == '\n' && b[i + 2] == '\r') return i + 4;
+        }
+        return -1;
+    }
+
+    /** Read more bytes, making room first. False on EOF. */
+    private boolean fill() throws IOException {
+        if (limit == buf.length) {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            } else if (buf.length < MAX_HEAD) {
+                buf = Arrays.copyOf(buf, Math.min(MAX_HEAD, buf.length * 2));
+            } else {
+                throw new IOException("Header too large");
+            }
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) return false;
+        limit += n;
+        return true;
+    }
+
+    private HttpRequest parseHead(int from, int end) throws IOException {
+        long started = System.nanoTime();
+        byte[] b = buf;
+        int eol = indexOf(b, (byte) '\r', from, end);
+        int sp1 = indexOf(b, (byte) ' ', from, eol);
+        if (sp1 < 0) return null;
+        int sp2 = indexOf(b, (byte) ' ', sp1 + 1, eol);
+        if (sp2 < 0) sp2 = eol;
+        if (sp2 == sp1 + 1) return null;
+        String method = ascii(from, sp1);
+        String target = ascii(sp1 + 1, sp2);
+        String version = sp2 < eol ? ascii(sp2 + 1, eol) : "";
+        Map<String, String> headers = new HashMap<>();
+        for (int i = eol + 2; i < end - 2; ) {
+            int le = indexOf(b, (byte) '\r', i, end - 2);
+            if (le < 0) le = end - 2;
+            int colon = indexOf(b, (byte) ':', i, le);
+            if (colon > i) {
+                String name = ascii(i, colon).trim().toLowerCase();
+                if (headers.put(name, ascii(colon + 1, le).trim()) != null && name.equals("content-length")) {
+                    throw new ProtocolException("Duplicate Content-Length");
+                }
+            }
+            i = le + 2;
+        }
+        pos = end;
+        if (headers.containsKey("transfer-encoding")) throw new ProtocolException("Transfer-Encoding not supported");
+        int contentLen = contentLength(headers.get("content-length"));
+        parseNanos = System.nanoTime() - started;
+        return new HttpRequest(method, target, version, headers, body(contentLen));
+    }
+
+    /** Digits only, at most {@link #MAX_BODY}; 0 when absent. */
+    private static int contentLength(String cl) throws ProtocolException {
+        if (cl == null) return 0;
+        if (cl.isEmpty() || cl.length() > 18) throw new ProtocolException("Bad Content-Length: " + cl);
+        long n = 0;
+        for (int i = 0; i < cl.length(); i++) {
+            char c = cl.charAt(i);
+            if (c < '0' || c > '9') throw new ProtocolException("Bad Content-Length: " + cl);
+            n = n * 10 + (c - '0');
+        }
+        if (n > MAX_BODY) throw new ProtocolException("Content-Length over " + MAX_BODY + ": " + cl);
+        return (int) n;
+    }
+
+    /** Body bytes: whatever is already buffered first, the rest straight from the stream. */
+    private byte[] body(int len) throws IOException {
+        byte[] body = new byte[len];
+        int buffered = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, body, 0, buffered);
+        pos += buffered;
+        for (int r, read = buffered; read < len; read += r) {
+            r = in.read(body, read, len - read);
+            if (r == -1) throw new EOFException("Unexpected EOF in body");
+        }
+        return body;
+    }
+
+    private String ascii(int from, int to) { return new String(buf, from, to - from, StandardCharsets.US_ASCII); }
+
+    private static int indexOf(byte[] b, byte c, int from, int to) {
+        for (int i = from; i < to; i++) if (b[i] == c) return i;
+        return -1;
+    }
+}
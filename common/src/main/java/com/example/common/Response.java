@@ -0,0 +1,198 @@
+package com.example.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+
+/**
+ * What a {@link Handler} answers: a pre-encoded head (one per keep-alive choice) and a body, which is
+ * one of a byte array, a length served from the shared {@link EchoPayload} ({@link #echo(int)}), a
+ * read-only view of memory-mapped file bytes ({@link #mapped}), or a region of a file that the server
+ * sends without copying it through the heap ({@link #file}), or a {@link BodyStream} sent in chunks as it is
+ * produced ({@link #stream}). {@link #preEncoded} turns an array response
+ * into one whose keep-alive bytes are encoded once and written as they are, for responses served many times.
+ */
+public final class Response {
+    private static final HeaderTemplate OK = HeaderTemplate.of(200, "OK", "text/plain", true),
+            OK_CLOSE = HeaderTemplate.of(200, "OK", "text/plain", false);
+
+    private final HeaderTemplate keepAlive, close;
+    private final byte[] body;       // array bodies only
+    private final ByteBuffer mapped; // mapped bodies only; shared, never moved, see mapped()
+    private final FileChannel file;  // file bodies only; shared, never closed by a writer
+    private final long offset, length; // file region; length also for echo and mapped bodies
+    private final ByteBuffer encoded; // whole keep-alive response, read-only; pre-encoded responses only
+    private final BodyStream stream;  // streamed bodies only
+
+    private Response(HeaderTemplate keepAlive, HeaderTemplate close, byte[] body, ByteBuffer mapped, FileChannel file,
+                     long offset, long length) {
+        this(keepAlive, close, body, mapped, file, offset, length, null, null);
+    }
+
+    private Response(HeaderTemplate keepAlive, HeaderTemplate close, byte[] body, ByteBuffer mapped, FileChannel file,
+                     long offset, long length, ByteBuffer encoded, BodyStream stream) {
+        this.keepAlive = keepAlive;
+        this.close = close;
+        this.body = body;
+        this.mapped = mapped;
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.encoded = encoded;
+        this.stream = stream;
+    }
+
+    /** 200 text/plain. */
+    public static Response ok(byte[] body) { return of(OK, OK_CLOSE, body); }
+
+    public static Response text(String s) { return ok(s.getBytes(StandardCharsets.UTF_8)); }
+
+    /** 200 with {@code size} bytes of the shared echo payload. */
+    public static Response echo(int size) { return new Response(OK, OK_CLOSE, null, null, null, 0, Math.max(0, size)); }
+
+    public static Response of(int code, String reason, String contentType, byte[] body) {
+        return of(code, reason, contentType, "", body);
+    }
+
+    /** With fixed extra header lines, as in {@link HeaderTemplate#of(int, String, String, boolean, String)}. */
+    public static Response of(int code, String reason, String contentType, String extra, byte[] body) {
+        return of(HeaderTemplate.of(code, reason, contentType, true, extra),
+                HeaderTemplate.of(code, reason, contentType, false, extra), body);
+    }
+
+    /** With heads built by the caller, e.g. {@link HeaderTemplate#uncached} ones carrying an ETag. */
+    public static Response of(HeaderTemplate keepAlive, HeaderTemplate close, byte[] body) {
+        return new Response(keepAlive, close, body, null, null, 0, body.length);
+    }
+
+    /** The remaining bytes of {@code view}, which the response takes over and must not be moved afterwards. */
+    public static Response mapped(HeaderTemplate keepAlive, HeaderTemplate close, ByteBuffer view) {
+        return new Response(keepAlive, close, null, view, null, 0, view.remaining());
+    }
+
+    /**
+     * {@code length} bytes of the already open {@code file} from {@code offset}, sent with positional transfers
+     * so responses can share the channel; writers neither open nor close it, so writing touches no file system.
+     */
+    public static Response file(HeaderTemplate keepAlive, HeaderTemplate close, FileChannel file, long offset, long length) {
+        return new Response(keepAlive, close, null, null, file, offset, length);
+    }
+
+    /**
+     * Copy of array response {@code res} in one direct buffer: the keep-alive head followed by the body, which
+     * a close response serves as a mapped-style view behind its own head.
+     */
+    public static Response preEncoded(Response res) {
+        if (res.body == null) throw new IllegalArgumentException("Only array responses can be pre-encoded");
+        ByteBuffer all = ByteBuffer.allocateDirect(res.keepAlive.maxLength() + res.body.length);
+        res.keepAlive.encode(all, res.body.length);
+        int head = all.position();
+        all.put(res.body).flip();
+        ByteBuffer bytes = all.asReadOnlyBuffer();
+        return new Response(res.keepAlive, res.close, null, bytes.slice(head, res.body.length), null, 0,
+                res.body.length, bytes, null);
+    }
+
+    /** 200 with a body of unknown length, pulled from {@code body} as the connection can take it. Not reusable. */
+    public static Response stream(String contentType, BodyStream body) {
+        return new Response(HeaderTemplate.chunked(200, "OK", contentType, true),
+                HeaderTemplate.chunked(200, "OK", contentType, false), null, null, null, 0, -1, null, body);
+    }
+
+    public HeaderTemplate header(boolean keepAlive) { return keepAlive ? this.keepAlive : close; }
+
+    public boolean isEcho() { return body == null && mapped == null && file == null && stream == null; }
+
+    /** The body; null unless this is an array response. */
+    public byte[] body() { return body; }
+
+    /** Mapped body bytes, null otherwise. Shared between writers: take a {@code duplicate()} to consume it. */
+    public ByteBuffer mapped() { return mapped; }
+
+    /** Channel of a file response, null otherwise; the body is {@link #contentLength()} bytes from {@link #fileOffset()}. */
+    public FileChannel file() { return file; }
+
+    public long fileOffset() { return offset; }
+
+    /** Length of the body; -1 for streamed bodies. */
+    public long contentLength() { return length; }
+
+    /** Body of a streamed response, null otherwise. */
+    public BodyStream stream() { return stream; }
+
+    /** The whole keep-alive response, head included, or null unless {@link #preEncoded}; {@code duplicate()} it too. */
+    public ByteBuffer encoded() { return encoded; }
+
+    /**
+     * Blocking write for the thread-per-connection servers: head and a small body leave in one write
+     * through {@code scratch}; echo bodies stream straight from the shared payload. Blocking sockets have
+     * no channel to send a file into, so mapped and file bodies go through {@code scratch}-sized writes.
+     * Streamed bodies are written and flushed chunk by chunk, the head first.
+     */
+    public void writeTo(OutputStream out, byte[] scratch, boolean keepAlive) throws IOException {
+        if (keepAlive && encoded != null) {
+            copy(encoded.duplicate(), out, scratch, 0);
+            out.flush();
+            return;
+        }
+        int n = header(keepAlive).encode(scratch, 0, contentLength());
+        if (body != null && n + body.length <= scratch.length) {
+            System.arraycopy(body, 0, scratch, n, body.length);
+            out.write(scratch, 0, n + body.length);
+        } else if (body != null) {
+            out.write(scratch, 0, n);
+            out.write(body);
+        } else if (mapped != null) {
+            copy(mapped.duplicate(), out, scratch, n);
+        } else if (stream != null) {
+            writeChunks(out, scratch, n);
+        } else if (file != null) {
+            out.write(scratch, 0, n);
+            WritableByteChannel dst = Channels.newChannel(out);
+            for (long pos = offset, end = offset + length; pos < end; ) {
+                long sent = file.transferTo(pos, end - pos, dst);
+                if (sent <= 0) throw new IOException("File shrank while sending");
+                pos += sent;
+            }
+        } else {
+            int inline = EchoPayload.fill(scratch, n, length);
+            out.write(scratch, 0, n + inline);
+            EchoPayload.writeTo(out, length - inline);
+        }
+        out.flush();
+    }
+
+    private void writeChunks(OutputStream out, byte[] scratch, int n) throws IOException {
+        try {
+            out.write(scratch, 0, n);
+            out.flush(); // first byte before the body is ready
+            for (ByteBuffer piece; (piece = stream.next().toCompletableFuture().join()) != null; ) {
+                if (!piece.hasRemaining()) continue;
+                n = Chunks.size(scratch, 0, piece.remaining());
+                copy(piece.duplicate(), out, scratch, n);
+                out.write(Chunks.CRLF);
+                out.flush();
+            }
+            out.write(Chunks.LAST);
+        } catch (CompletionException e) {
+            throw new IOException("Body stream failed", e.getCause());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /** Write {@code src} through {@code scratch}, after the {@code n} bytes already in it. */
+    private static void copy(ByteBuffer src, OutputStream out, byte[] scratch, int n) throws IOException {
+        do {
+            int chunk = Math.min(src.remaining(), scratch.length - n);
+            src.get(scratch, n, chunk);
+            out.write(scratch, 0, n + chunk);
+            n = 0;
+        } while (src.hasRemaining());
+    }
+}
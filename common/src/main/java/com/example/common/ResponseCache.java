@@ -0,0 +1,161 @@
+package com.example.common;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process cache of {@link Response#preEncoded pre-encoded} responses for routes whose answer depends
+ * only on path and query, shared by every route of a JVM ({@link #SHARED}). Keys are the path plus the
+ * query parameters in sorted order, so {@code ?a=1&b=2} and {@code ?b=2&a=1} share an entry.
+ * <p>
+ * Lookups are a {@link ConcurrentHashMap} read and never lock. Inserts and eviction take one lock:
+ * entries sit in a CLOCK queue (second chance), where a hit sets the entry's reference bit and the
+ * sweep evicts the first unreferenced or expired entry until the total is under
+ * {@code server.cache.maxBytes}. Concurrent misses for one key are coalesced: the first runs the
+ * handler, the rest wait for its result. Only 200 responses with an array body are stored; anything
+ * else is handed to the waiting requests and forgotten.
+ * <p>
+ * Off by default, since it changes what the CPU endpoints measure: {@code server.cache.ttlMs} turns it
+ * on for every cacheable route, {@code server.cache.ttlMs./cpu} (etc.) sets one route's TTL.
+ */
+public final class ResponseCache {
+    public static final ResponseCache SHARED = new ResponseCache(Long.getLong("server.cache.maxBytes", 32L * 1024 * 1024));
+
+    private static final int ENTRY_OVERHEAD = 128; // key, entry and buffer headers, roughly
+
+    private static final LongAdder HITS = Metrics.SHARED.counter("cache_hits", "Requests answered from the response cache.");
+    private static final LongAdder MISSES = Metrics.SHARED.counter("cache_misses", "Cacheable requests that ran their handler.");
+    private static final LongAdder COALESCED = Metrics.SHARED.counter("cache_coalesced", "Cache misses that waited for a concurrent miss on the same key instead of running the handler.");
+    private static final LongAdder EVICTIONS = Metrics.SHARED.counter("cache_evictions", "Entries evicted from the response cache for space or expiry.");
+
+    private static final class Entry {
+        final String key;
+        final Response response;
+        final long expiresAt, weight;
+        volatile boolean referenced;
+        boolean live = true; // false once replaced or evicted; guarded by the cache lock
+
+        Entry(String key, Response response, long expiresAt) {
+            this.key = key;
+            this.response = response;
+            this.expiresAt = expiresAt;
+            this.weight = ENTRY_OVERHEAD + key.length() + response.encoded().capacity();
+        }
+    }
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>(); // guarded by this
+    private long bytes; // guarded by this
+
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        Metrics.SHARED.gauge("cache_bytes", "Bytes held by the response cache.", () -> { synchronized (this) { return bytes; } });
+        Metrics.SHARED.gauge("cache_entries", "Entries in the response cache.", entries::size);
+    }
+
+    /** {@code handler}, cached with {@code route}'s configured TTL, or {@code handler} itself when that is 0. */
+    public static Handler.Async forRoute(String route, Handler.Async handler) {
+        long ttlMs = Long.getLong("server.cache.ttlMs." + route, Long.getLong("server.cache.ttlMs", 0));
+        return ttlMs > 0 ? SHARED.cached(ttlMs, handler) : handler;
+    }
+
+    /** {@code handler} behind this cache, entries living {@code ttlMs}. */
+    public Handler.Async cached(long ttlMs, Handler.Async handler) {
+        long ttlNanos = ttlMs * 1_000_000L;
+        return (req, env) -> {
+            String key = key(req);
+            Response hit = lookup(key);
+            if (hit != null) return CompletableFuture.completedFuture(hit);
+            CompletableFuture<Response> mine = new CompletableFuture<>();
+            CompletableFuture<Response> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                COALESCED.increment();
+                return running;
+            }
+            if ((hit = lookup(key)) != null) { // a leader finished between our lookup and putIfAbsent
+                inFlight.remove(key, mine);
+                return CompletableFuture.completedFuture(hit);
+            }
+            MISSES.increment();
+            CompletionStage<Response> result;
+            try {
+                result = handler.handle(req, env); // reads the request now, before we return
+            } catch (RuntimeException ex) {
+                result = CompletableFuture.failedFuture(ex);
+            }
+            result.whenComplete((res, err) -> {
+                Response out = res;
+                if (err == null && cacheable(res)) {
+                    out = Response.preEncoded(res);
+                    put(new Entry(key, out, System.nanoTime() + ttlNanos));
+                }
+                inFlight.remove(key, mine);
+                if (err != null) mine.completeExceptionally(err);
+                else mine.complete(out);
+            });
+            return mine;
+        };
+    }
+
+    /** Fresh cached response for {@code key}, or null. */
+    private Response lookup(String key) {
+        Entry e = entries.get(key);
+        if (e == null || e.expiresAt - System.nanoTime() <= 0) return null;
+        if (!e.referenced) e.referenced = true; // skip the store when already set
+        HITS.increment();
+        return e.response;
+    }
+
+    private static boolean cacheable(Response res) {
+        return res != null && res.body() != null && res.header(true).status() == 200;
+    }
+
+    private synchronized void put(Entry e) {
+        Entry old = entries.put(e.key, e);
+        if (old != null && old.live) {
+            old.live = false;
+            bytes -= old.weight;
+        }
+        clock.addLast(e);
+        bytes += e.weight;
+        long now = System.nanoTime();
+        // Second chance: referenced entries go round once more with the bit cleared, the rest are evicted.
+        for (int turns = clock.size() * 2; bytes > maxBytes && turns > 0 && !clock.isEmpty(); turns--) {
+            Entry head = clock.pollFirst();
+            if (!head.live) continue;
+            if (head.referenced && head != e && head.expiresAt - now > 0) {
+                head.referenced = false;
+                clock.addLast(head);
+                continue;
+            }
+            head.live = false;
+            bytes -= head.weight;
+            entries.remove(head.key, head);
+            EVICTIONS.increment();
+        }
+        // Replaced entries are skipped lazily; drop them once they make up most of the queue.
+        if (clock.size() > 2 * entries.size() + 64) clock.removeIf(x -> !x.live);
+    }
+
+    /** Path plus the query parameters sorted, so parameter order does not split entries. */
+    static String key(Request req) {
+        String q = req.queryString();
+        if (q.isEmpty()) return req.path();
+        if (q.indexOf('&') < 0) return req.path() + "?" + q;
+        String[] params = q.split("&");
+        Arrays.sort(params);
+        StringBuilder sb = new StringBuilder(req.path().length() + q.length() + 1).append(req.path()).append('?');
+        for (String p : params) {
+            if (p.isEmpty()) continue;
+            if (sb.charAt(sb.length() - 1) != '?') sb.append('&');
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+}
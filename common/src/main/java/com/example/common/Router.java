@@ -0,0 +1,168 @@
+package com.example.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Routing table, frozen at startup. Paths are compiled into a byte trie stored in flat arrays, so a
+ * lookup walks the path once whatever the number of routes, and can run straight over the bytes in a
+ * read buffer without building a {@code String}. Exact routes win over prefix routes; among prefixes
+ * the longest match wins.
+ */
+public final class Router {
+
+    /** A routed path: its handler and the histograms its requests are recorded in. */
+    public static final class Endpoint {
+        private final String name;
+        private final Handler handler;
+        private final Metrics.Route metrics;
+
+        private Endpoint(String name, Handler handler) {
+            this.name = name;
+            this.handler = handler;
+            this.metrics = Metrics.SHARED.route(name);
+        }
+
+        public String name() { return name; }
+
+        public Handler handler() { return handler; }
+
+        public Metrics.Route metrics() { return metrics; }
+
+        /** Run the handler to completion on the calling thread; for the blocking servers. */
+        public Response call(Request req, Env env) {
+            if (handler instanceof Handler.Sync s) return s.handle(req);
+            return ((Handler.Async) handler).handle(req, env).toCompletableFuture().join();
+        }
+    }
+
+    // Node i: outgoing edges labels[i][k] -> children[i][k]; endpoints[i] when a path ends there,
+    // prefixes[i] for every path passing through it.
+    private final byte[][] labels;
+    private final int[][] children;
+    private final Endpoint[] endpoints, prefixes;
+    private final Endpoint fallback;
+
+    private Router(byte[][] labels, int[][] children, Endpoint[] endpoints, Endpoint[] prefixes, Endpoint fallback) {
+        this.labels = labels;
+        this.children = children;
+        this.endpoints = endpoints;
+        this.prefixes = prefixes;
+        this.fallback = fallback;
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    /** Endpoint for {@code path}, or the fallback. */
+    public Endpoint lookup(CharSequence path) {
+        int node = 0;
+        Endpoint prefix = null;
+        for (int i = 0, n = path.length(); i < n; i++) {
+            char c = path.charAt(i);
+            node = c > 0x7f ? -1 : child(node, (byte) c);
+            if (node < 0) break;
+            if (prefixes[node] != null) prefix = prefixes[node];
+        }
+        return found(node, prefix);
+    }
+
+    /** Endpoint for the path in {@code buf[from, to)} (absolute indices), or the fallback. */
+    public Endpoint lookup(ByteBuffer buf, int from, int to) {
+        int node = 0;
+        Endpoint prefix = null;
+        for (int i = from; i < to; i++) {
+            node = child(node, buf.get(i));
+            if (node < 0) break;
+            if (prefixes[node] != null) prefix = prefixes[node];
+        }
+        return found(node, prefix);
+    }
+
+    private int child(int node, byte b) {
+        byte[] l = labels[node];
+        for (int k = 0; k < l.length; k++) if (l[k] == b) return children[node][k];
+        return -1;
+    }
+
+    private Endpoint found(int node, Endpoint prefix) {
+        Endpoint e = node < 0 ? null : endpoints[node];
+        return e != null ? e : prefix != null ? prefix : fallback;
+    }
+
+    public static final class Builder {
+        private final List<byte[]> labels = new ArrayList<>();
+        private final List<int[]> children = new ArrayList<>();
+        private final List<Endpoint> endpoints = new ArrayList<>(), prefixes = new ArrayList<>();
+        private Endpoint fallback = new Endpoint("other", (Handler.Sync) req -> Response.of(404, "Not Found", "text/plain", new byte[0]));
+
+        private Builder() { newNode(); }
+
+        public Builder sync(String path, Handler.Sync handler) { return add(path, handler); }
+
+        public Builder async(String path, Handler.Async handler) { return add(path, handler); }
+
+        /** Handler for every path starting with {@code prefix} (which must not be empty); named {@code prefix*} in metrics. */
+        public Builder prefix(String prefix, Handler handler) {
+            if (prefix.isEmpty()) throw new IllegalArgumentException("Empty prefix, use fallback");
+            int node = node(prefix);
+            if (prefixes.get(node) != null) throw new IllegalArgumentException("Duplicate prefix " + prefix);
+            prefixes.set(node, new Endpoint(prefix + "*", handler));
+            return this;
+        }
+
+        /** Handler for every path without a route; named {@code name} in metrics. */
+        public Builder fallback(String name, Handler handler) {
+            fallback = new Endpoint(name, handler);
+            return this;
+        }
+
+        private Builder add(String path, Handler handler) {
+            int node = node(path);
+            if (endpoints.get(node) != null) throw new IllegalArgumentException("Duplicate route " + path);
+            endpoints.set(node, new Endpoint(path, handler));
+            return this;
+        }
+
+        /** Trie node for {@code path}, created along with any missing ancestors. */
+        private int node(String path) {
+            int node = 0;
+            for (byte b : path.getBytes(StandardCharsets.US_ASCII)) {
+                int next = -1;
+                byte[] l = labels.get(node);
+                for (int k = 0; k < l.length; k++) if (l[k] == b) next = children.get(node)[k];
+                if (next < 0) {
+                    next = newNode();
+                    labels.set(node, append(l, b));
+                    int[] c = children.get(node);
+                    c = Arrays.copyOf(c, c.length + 1);
+                    c[c.length - 1] = next;
+                    children.set(node, c);
+                }
+                node = next;
+            }
+            return node;
+        }
+
+        private int newNode() {
+            labels.add(new byte[0]);
+            children.add(new int[0]);
+            endpoints.add(null);
+            prefixes.add(null);
+            return labels.size() - 1;
+        }
+
+        private static byte[] append(byte[] a, byte b) {
+            byte[] r = Arrays.copyOf(a, a.length + 1);
+            r[a.length] = b;
+            return r;
+        }
+
+        public Router build() {
+            return new Router(labels.toArray(new byte[0][]), children.toArray(new int[0][]),
+                    endpoints.toArray(new Endpoint[0]), prefixes.toArray(new Endpoint[0]), fallback);
+        }
+    }
+}
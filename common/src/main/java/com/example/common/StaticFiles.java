@@ -0,0 +1,289 @@
+package com.example.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Files under a directory, behind a prefix route ({@code /static/*} in {@link Endpoints}). Files up to
+ * {@code server.static.mapMaxBytes} are memory-mapped once and kept in an LRU bounded by
+ * {@code server.static.cacheBytes}, so a hit is a view of the page cache with no read and no copy into
+ * the heap. Larger files are opened once and their channel cached instead; responses share it and the
+ * event loop sends regions of it with positional {@code FileChannel.transferTo} (sendfile). Cached
+ * entries are checked against the file at most once a second. A fresh cache hit is answered on the
+ * calling thread without a system call; everything that touches the file system (stat, resolving
+ * symlinks, opening, mapping) goes through {@link Env#offload}, so a slow disk never stalls an event loop.
+ * <p>
+ * ETags are derived from size and modification time. A matching {@code If-None-Match} answers 304; a
+ * single {@code Range}, honoured unless {@code If-Range} names another ETag, answers 206, or 416 when
+ * it lies past the end. Several ranges get the whole file, which RFC 9110 allows.
+ */
+public final class StaticFiles implements Handler.Async {
+    private static final long REVALIDATE_NANOS = 1_000_000_000L;
+    private static final int MAX_ENTRIES = 10_000, ENTRY_OVERHEAD = 512; // bytes charged per entry besides the mapping
+    private static final byte[] EMPTY = new byte[0];
+    private static final Response NOT_FOUND = Response.of(404, "Not Found", "text/plain", EMPTY);
+    private static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"), Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css"), Map.entry("js", "text/javascript"), Map.entry("json", "application/json"),
+            Map.entry("txt", "text/plain; charset=utf-8"), Map.entry("xml", "application/xml"),
+            Map.entry("svg", "image/svg+xml"), Map.entry("png", "image/png"), Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"), Map.entry("gif", "image/gif"), Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"), Map.entry("pdf", "application/pdf"), Map.entry("wasm", "application/wasm"));
+
+    private static final LongAdder HITS = Metrics.SHARED.counter("static_cache_hits", "Static file requests answered from cached metadata or mappings.");
+    private static final LongAdder MISSES = Metrics.SHARED.counter("static_cache_misses", "Static file requests that had to open or map the file.");
+
+    /** One file as last seen: its heads and, for small files, its mapping. */
+    private static final class Entry {
+        final Path file;
+        final long size;
+        final FileTime modified;
+        final String etag, contentType;
+        final ByteBuffer mapped;  // null for files sent as regions
+        final FileChannel channel; // open for files sent as regions, else null; shared by their responses
+        final HeaderTemplate ok, okClose, notModified, notModifiedClose;
+        volatile long checkedAt;
+
+        Entry(Path file, long size, FileTime modified, String contentType, ByteBuffer mapped, FileChannel channel) {
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified.toMillis()) + "\"";
+            this.contentType = contentType;
+            this.mapped = mapped;
+            this.channel = channel;
+            String extra = "ETag: " + etag + "\r\nAccept-Ranges: bytes\r\n";
+            this.ok = HeaderTemplate.uncached(200, "OK", contentType, true, extra);
+            this.okClose = HeaderTemplate.uncached(200, "OK", contentType, false, extra);
+            this.notModified = HeaderTemplate.withoutLength(304, "Not Modified", true, "ETag: " + etag + "\r\n");
+            this.notModifiedClose = HeaderTemplate.withoutLength(304, "Not Modified", false, "ETag: " + etag + "\r\n");
+        }
+
+        long weight() { return ENTRY_OVERHEAD + (mapped == null ? 0 : size); }
+    }
+
+    private final String prefix;
+    private final Path root; // real path; null when no directory is configured
+    private final long cacheBytes, mapMaxBytes;
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(64, 0.75f, true); // guarded by this
+    private long cachedBytes; // guarded by this
+
+    public StaticFiles(String prefix, Path root, long cacheBytes, long mapMaxBytes) throws IOException {
+        this.prefix = prefix;
+        this.root = root == null ? null : root.toRealPath();
+        if (this.root != null && !Files.isDirectory(this.root)) throw new IOException(root + " is not a directory");
+        this.cacheBytes = cacheBytes;
+        this.mapMaxBytes = Math.min(mapMaxBytes, Integer.MAX_VALUE);
+        if (this.root != null) {
+            Metrics.SHARED.gauge("static_cache_bytes", "Bytes of static files mapped in the cache.", () -> { synchronized (this) { return cachedBytes; } });
+        }
+    }
+
+    /** Configured by {@code server.static.dir} (unset: every path is 404), {@code .cacheBytes} and {@code .mapMaxBytes}. */
+    public static StaticFiles fromProperties(String prefix) {
+        String dir = System.getProperty("server.static.dir");
+        try {
+            return new StaticFiles(prefix, dir == null ? null : Path.of(dir),
+                    Long.getLong("server.static.cacheBytes", 64L * 1024 * 1024),
+                    Long.getLong("server.static.mapMaxBytes", 1024 * 1024));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("server.static.dir: " + e.getMessage(), e);
+        }
+    }
+
+    @Override public CompletionStage<Response> handle(Request req, Env env) {
+        String path = req.path();
+        if (root == null || !path.startsWith(prefix)) return CompletableFuture.completedFuture(NOT_FOUND);
+        String rel = path.substring(prefix.length());
+        // Read now: once this returns, the request's bytes may be gone.
+        String inm = req.header("if-none-match"), range = req.header("range"), ifRange = req.header("if-range");
+        Entry e = fresh(rel);
+        if (e != null) return CompletableFuture.completedFuture(respond(e, inm, range, ifRange));
+        return env.offload(() -> respond(entry(rel), inm, range, ifRange));
+    }
+
+    private static Response respond(Entry e, String inm, String range, String ifRange) {
+        if (e == null) return NOT_FOUND;
+        if (inm != null && matches(inm, e.etag)) return Response.of(e.notModified, e.notModifiedClose, EMPTY);
+        if (range != null && (ifRange == null || ifRange.equals(e.etag))) {
+            long[] r = range(range, e.size);
+            if (r != null && r.length == 0) {
+                String extra = "Content-Range: bytes */" + e.size + "\r\n";
+                return Response.of(HeaderTemplate.uncached(416, "Range Not Satisfiable", "text/plain", true, extra),
+                        HeaderTemplate.uncached(416, "Range Not Satisfiable", "text/plain", false, extra), EMPTY);
+            }
+            if (r != null) {
+                String extra = "ETag: " + e.etag + "\r\nContent-Range: bytes " + r[0] + "-" + (r[1] - 1) + "/" + e.size + "\r\n";
+                return body(e, r[0], r[1] - r[0], HeaderTemplate.uncached(206, "Partial Content", e.contentType, true, extra),
+                        HeaderTemplate.uncached(206, "Partial Content", e.contentType, false, extra));
+            }
+        }
+        return body(e, 0, e.size, e.ok, e.okClose);
+    }
+
+    private static Response body(Entry e, long from, long length, HeaderTemplate keepAlive, HeaderTemplate close) {
+        if (e.mapped != null) return Response.mapped(keepAlive, close, e.mapped.slice((int) from, (int) length));
+        return Response.file(keepAlive, close, e.channel, from, length);
+    }
+
+    /** Cached entry for {@code rel} if it was checked against the file within the last second, else null. No IO. */
+    private Entry fresh(String rel) {
+        Entry e;
+        synchronized (this) { e = cache.get(rel); }
+        if (e == null || System.nanoTime() - e.checkedAt >= REVALIDATE_NANOS) return null;
+        HITS.increment();
+        return e;
+    }
+
+    /** Cached entry for {@code rel}, re-checked or (re)loaded as needed; null when there is no such file. Blocks on the disk. */
+    private Entry entry(String rel) {
+        Entry e;
+        synchronized (this) { e = cache.get(rel); }
+        long now = System.nanoTime();
+        if (e != null && now - e.checkedAt < REVALIDATE_NANOS) {
+            HITS.increment();
+            return e;
+        }
+        try {
+            Path file = resolve(rel);
+            BasicFileAttributes a = file == null ? null : Files.readAttributes(file, BasicFileAttributes.class);
+            if (a == null || !a.isRegularFile()) {
+                if (e != null) remove(rel);
+                return null;
+            }
+            if (e != null && e.size == a.size() && e.modified.equals(a.lastModifiedTime())) {
+                e.checkedAt = now;
+                HITS.increment();
+                return e;
+            }
+            MISSES.increment();
+            Entry loaded = load(file, a);
+            loaded.checkedAt = now;
+            put(rel, loaded);
+            return loaded;
+        } catch (IOException ex) {
+            if (e != null) remove(rel);
+            return null;
+        }
+    }
+
+    private Entry load(Path file, BasicFileAttributes a) throws IOException {
+        ByteBuffer mapped = null;
+        FileChannel channel = null;
+        if (a.size() <= mapMaxBytes) {
+            // The mapping outlives the channel; it is released by the GC once evicted and no response holds it.
+            try (FileChannel fc = FileChannel.open(file)) {
+                mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0, a.size()).asReadOnlyBuffer();
+            }
+        } else {
+            // Likewise left open on eviction, since responses in flight may still send from it; the
+            // channel's cleaner closes it once neither the cache nor a response holds it.
+            channel = FileChannel.open(file);
+        }
+        return new Entry(file, a.size(), a.lastModifiedTime(), contentType(file), mapped, channel);
+    }
+
+    private synchronized void put(String rel, Entry e) {
+        Entry old = cache.put(rel, e);
+        if (old != null) cachedBytes -= old.weight();
+        cachedBytes += e.weight();
+        for (Iterator<Entry> it = cache.values().iterator(); it.hasNext() && (cachedBytes > cacheBytes || cache.size() > MAX_ENTRIES); ) {
+            Entry eldest = it.next();
+            if (eldest == e) break;
+            cachedBytes -= eldest.weight();
+            it.remove();
+        }
+    }
+
+    private synchronized void remove(String rel) {
+        Entry old = cache.remove(rel);
+        if (old != null) cachedBytes -= old.weight();
+    }
+
+    /** File under the root for the still percent-encoded {@code rel}, or null if it would leave the root. */
+    private Path resolve(String rel) throws IOException {
+        String name = decode(rel);
+        if (name == null || name.isEmpty() || name.indexOf('\0') >= 0 || name.indexOf('\\') >= 0) return null;
+        Path p = root.resolve(name.startsWith("/") ? name.substring(1) : name).normalize();
+        if (!p.startsWith(root)) return null;
+        p = p.toRealPath(); // symlinks must not lead out either
+        return p.startsWith(root) ? p : null;
+    }
+
+    /** Percent-decoding of a path (no '+' rule), or null when malformed. */
+    private static String decode(String s) {
+        if (s.indexOf('%') < 0) return s;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '%') { out.write(c); continue; }
+            if (i + 2 >= s.length()) return null;
+            int hi = Character.digit(s.charAt(i + 1), 16), lo = Character.digit(s.charAt(i + 2), 16);
+            if (hi < 0 || lo < 0) return null;
+            out.write(hi << 4 | lo);
+            i += 2;
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "application/octet-stream"
+                : TYPES.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), "application/octet-stream");
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * One {@code bytes=} range of a {@code size}-byte file as {start, end exclusive}; an empty array when
+     * it is unsatisfiable; null when the header is to be ignored (malformed, other units, several ranges).
+     */
+    private static long[] range(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        String first = spec.substring(0, dash).trim(), last = spec.substring(dash + 1).trim();
+        try {
+            long start, end;
+            if (first.isEmpty()) { // suffix: the last N bytes
+                if (last.isEmpty()) return null;
+                long n = Long.parseLong(last);
+                if (n <= 0 || size == 0) return new long[0]; // an empty file has no last bytes to give
+                start = Math.max(0, size - n);
+                end = size;
+            } else {
+                start = Long.parseLong(first);
+                if (start >= size) return new long[0];
+                long lastByte = last.isEmpty() ? size - 1 : Long.parseLong(last);
+                if (lastByte < start) return null;
+                end = Math.min(size, lastByte + 1);
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.common;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** Thread factories shared by the servers' fixed pools. */
+public final class Threads {
+    private Threads() {}
+
+    /** Daemon platform threads named {@code prefix} followed by the thread id, e.g. {@code worker-42}. */
+    public static ThreadFactory daemon(String prefix) {
+        ThreadFactory def = Executors.defaultThreadFactory();
+        return r -> {
+            Thread t = def.newThread(r);
+            t.setName(prefix + t.getId());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
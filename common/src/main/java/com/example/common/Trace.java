@@ -0,0 +1,162 @@
+package com.example.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flight-recorder events at the boundaries of a request's path through a server: accepted, parsed,
+ * queued and picked up (per queue: worker pool, CPU pool, timer, completion hand-off), handler start
+ * and end, and last byte written. Each is an instant carrying the request id, so one request can be
+ * followed across threads; {@code TraceReport} turns a recording into a per-stage breakdown.
+ * <p>
+ * Nothing is allocated or counted unless a running recording has these events enabled ({@link #on()},
+ * a volatile read kept current by a recorder listener), e.g. {@code -XX:StartFlightRecording=filename=run.jfr}
+ * or {@code jcmd <pid> JFR.start}; a recording that leaves them out, such as a profiling one with
+ * {@code server.*#enabled=false}, costs requests nothing. Ids are 0 for requests that started before the
+ * recording did, and such requests are not traced.
+ */
+public final class Trace {
+    private Trace() {}
+
+    private static final AtomicLong IDS = new AtomicLong();
+    private static volatile boolean active;
+    // Event types whose enabled state decides on(): EventType.isEnabled() is true while any running
+    // recording has that type enabled. Declared before the static block, which reads it.
+    private static final Class<?>[] EVENTS = {Accept.class, Parse.class, Enqueue.class, Dequeue.class,
+            HandlerStart.class, HandlerEnd.class, WriteComplete.class};
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override public void recordingStateChanged(Recording recording) { refresh(); }
+        });
+        if (FlightRecorder.isInitialized()) refresh(); // started with -XX:StartFlightRecording
+    }
+
+    private static void refresh() {
+        boolean enabled = false;
+        for (Class<?> c : EVENTS) enabled |= EventType.getEventType(c.asSubclass(Event.class)).isEnabled();
+        active = enabled;
+    }
+
+    /** True while a running recording has the server events enabled, as of its last start or stop. */
+    public static boolean on() { return active; }
+
+    /** A fresh connection or request id while tracing, else 0. */
+    public static long nextId() { return active ? IDS.incrementAndGet() : 0; }
+
+    public static void accepted(long connectionId) {
+        if (connectionId == 0) return;
+        Accept e = new Accept();
+        e.connectionId = connectionId;
+        e.commit();
+    }
+
+    public static void parsed(long connectionId, long requestId, String route, long parseNanos) {
+        if (requestId == 0) return;
+        Parse e = new Parse();
+        e.connectionId = connectionId;
+        e.requestId = requestId;
+        e.route = route;
+        e.parseTime = parseNanos;
+        e.commit();
+    }
+
+    /** Into {@code queue}. Connection-level queues (a pool of connection workers) pass request id 0. */
+    public static void enqueued(long connectionId, long requestId, String queue) {
+        if (connectionId == 0 && requestId == 0) return;
+        Enqueue e = new Enqueue();
+        e.connectionId = connectionId;
+        e.requestId = requestId;
+        e.queue = queue;
+        e.commit();
+    }
+
+    public static void dequeued(long connectionId, long requestId, String queue) {
+        if (connectionId == 0 && requestId == 0) return;
+        Dequeue e = new Dequeue();
+        e.connectionId = connectionId;
+        e.requestId = requestId;
+        e.queue = queue;
+        e.commit();
+    }
+
+    public static void handlerStarted(long requestId) {
+        if (requestId == 0) return;
+        HandlerStart e = new HandlerStart();
+        e.requestId = requestId;
+        e.commit();
+    }
+
+    public static void handlerEnded(long requestId) {
+        if (requestId == 0) return;
+        HandlerEnd e = new HandlerEnd();
+        e.requestId = requestId;
+        e.commit();
+    }
+
+    public static void written(long requestId) {
+        if (requestId == 0) return;
+        WriteComplete e = new WriteComplete();
+        e.requestId = requestId;
+        e.commit();
+    }
+
+    @Name("server.Accept") @Label("Accept") @Category("Server") @StackTrace(false)
+    @Description("A connection was accepted.")
+    static final class Accept extends Event {
+        @Label("Connection") long connectionId;
+    }
+
+    @Name("server.Parse") @Label("Parse") @Category("Server") @StackTrace(false)
+    @Description("A request head was parsed and routed.")
+    static final class Parse extends Event {
+        @Label("Connection") long connectionId;
+        @Label("Request") long requestId;
+        @Label("Route") String route;
+        @Label("Parse Time") @Timespan(Timespan.NANOSECONDS) long parseTime;
+    }
+
+    @Name("server.Enqueue") @Label("Enqueue") @Category("Server") @StackTrace(false)
+    @Description("A request, or a connection (request 0), was queued for a thread.")
+    static final class Enqueue extends Event {
+        @Label("Connection") long connectionId;
+        @Label("Request") long requestId;
+        @Label("Queue") String queue;
+    }
+
+    @Name("server.Dequeue") @Label("Dequeue") @Category("Server") @StackTrace(false)
+    @Description("A request, or a connection (request 0), was taken off a queue.")
+    static final class Dequeue extends Event {
+        @Label("Connection") long connectionId;
+        @Label("Request") long requestId;
+        @Label("Queue") String queue;
+    }
+
+    @Name("server.HandlerStart") @Label("Handler Start") @Category("Server") @StackTrace(false)
+    static final class HandlerStart extends Event {
+        @Label("Request") long requestId;
+    }
+
+    @Name("server.HandlerEnd") @Label("Handler End") @Category("Server") @StackTrace(false)
+    @Description("The handler's response is ready.")
+    static final class HandlerEnd extends Event {
+        @Label("Request") long requestId;
+    }
+
+    @Name("server.WriteComplete") @Label("Write Complete") @Category("Server") @StackTrace(false)
+    @Description("The last byte of the response was handed to the socket.")
+    static final class WriteComplete extends Event {
+        @Label("Request") long requestId;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test void buffersComeFromSlabsUntilTheBudgetIsSpent() {
+        BufferPool pool = new BufferPool(new int[]{64}, 256, 256);
+        List<ByteBuffer> leased = new ArrayList<>();
+        for (int i = 0; i < 4; i++) leased.add(pool.lease(10));
+        for (ByteBuffer b : leased) {
+            assertTrue(b.isDirect());
+            assertEquals(64, b.capacity());
+        }
+        assertFalse(pool.lease(10).isDirect(), "over budget falls back to the heap");
+        assertFalse(pool.lease(65).isDirect(), "above the largest class");
+        leased.forEach(pool::release);
+        assertTrue(pool.lease(10).isDirect());
+    }
+
+    @Test void buffersCachedByADeadThreadAreLeasedAgain() throws InterruptedException {
+        BufferPool pool = new BufferPool(new int[]{64}, 256, 256); // one slab of four
+        pool.release(pool.lease(1)); // this thread now caches one; the depot holds three
+        Thread t = new Thread(() -> {
+            List<ByteBuffer> mine = new ArrayList<>();
+            for (int i = 0; i < 3; i++) mine.add(pool.lease(1));
+            mine.forEach(pool::release); // into this thread's cache, which dies with it
+        });
+        t.start();
+        t.join();
+        assertTrue(pool.lease(1).isDirect());
+        for (int i = 0; i < 3; i++) assertTrue(pool.lease(1).isDirect(), "buffer " + i + " stranded");
+        assertFalse(pool.lease(1).isDirect());
+    }
+}
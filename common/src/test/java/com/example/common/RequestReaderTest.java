@@ -0,0 +1,82 @@
+package com.example.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestReaderTest {
+
+    private static RequestReader reader(String wire) {
+        return new RequestReader(new ByteArrayInputStream(wire.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /** Hands out one byte per read, so every boundary gets exercised. */
+    private static RequestReader trickle(String wire) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(wire.getBytes(StandardCharsets.US_ASCII));
+        return new RequestReader(new InputStream() {
+            @Override public int read() { return bytes.read(); }
+
+            @Override public int read(byte[] b, int off, int len) { return bytes.read(b, off, Math.min(len, 1)); }
+        });
+    }
+
+    @Test void readsPipelinedRequestsWithBodies() throws IOException {
+        String wire = "POST /echo?size=3 HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+                + "GET /cpu HTTP/1.1\r\nHost: x\r\n\r\n";
+        for (RequestReader r : new RequestReader[]{reader(wire), trickle(wire)}) {
+            HttpRequest first = r.next();
+            assertEquals("POST", first.method());
+            assertEquals("/echo", first.path());
+            assertEquals(3, first.queryInt("size", 0));
+            assertEquals("hello", new String(first.body(), StandardCharsets.US_ASCII));
+            HttpRequest second = r.next();
+            assertEquals("/cpu", second.path());
+            assertEquals("x", second.header("Host"));
+            assertEquals(0, second.body().length);
+            assertNull(r.next());
+        }
+    }
+
+    @Test void rejectsContentLengthThatIsNotANumber() {
+        assertThrows(ProtocolException.class, () -> reader("GET / HTTP/1.1\r\nContent-Length: abc\r\n\r\n").next());
+        assertThrows(ProtocolException.class, () -> reader("GET / HTTP/1.1\r\nContent-Length: \r\n\r\n").next());
+        assertThrows(ProtocolException.class, () -> reader("GET / HTTP/1.1\r\nContent-Length: +5\r\n\r\nhello").next());
+    }
+
+    @Test void rejectsNegativeContentLength() {
+        assertThrows(ProtocolException.class, () -> reader("GET / HTTP/1.1\r\nContent-Length: -1\r\n\r\n").next());
+    }
+
+    @Test void rejectsContentLengthOverTheCap() {
+        assertThrows(ProtocolException.class,
+                () -> reader("GET / HTTP/1.1\r\nContent-Length: " + (RequestReader.MAX_BODY + 1) + "\r\n\r\n").next());
+        assertThrows(ProtocolException.class,
+                () -> reader("GET / HTTP/1.1\r\nContent-Length: 99999999999999999999\r\n\r\n").next());
+    }
+
+    @Test void rejectsDuplicateContentLength() {
+        assertThrows(ProtocolException.class,
+                () -> reader("POST / HTTP/1.1\r\nContent-Length: 1\r\nContent-Length: 1\r\n\r\nx").next());
+    }
+
+    @Test void rejectsTransferEncoding() {
+        assertThrows(ProtocolException.class,
+                () -> reader("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n").next());
+    }
+
+    @Test void acceptsLeadingZeros() throws IOException {
+        assertEquals("ab", new String(reader("POST / HTTP/1.1\r\nContent-Length: 002\r\n\r\nab").next().body(),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test void truncatedBodyIsAnEof() {
+        IOException e = assertThrows(IOException.class, () -> reader("POST / HTTP/1.1\r\nContent-Length: 9\r\n\r\nab").next());
+        assertFalse(e instanceof ProtocolException);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticFilesTest {
+    @TempDir Path dir;
+
+    /** The whole response {@code files} gives to a GET of {@code path} with {@code headers}, as sent on the wire. */
+    private static String get(StaticFiles files, String path, String... headers) throws IOException {
+        Map<String, String> h = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) h.put(headers[i], headers[i + 1]);
+        Response res = files.handle(new HttpRequest("GET", path, "HTTP/1.1", h, new byte[0]), Env.BLOCKING)
+                .toCompletableFuture().join();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        res.writeTo(out, new byte[8 * 1024], true);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    private StaticFiles files(long mapMaxBytes) throws IOException {
+        return new StaticFiles("/static/", dir, 1024 * 1024, mapMaxBytes);
+    }
+
+    @Test void anyRangeOfAnEmptyFileIsUnsatisfiable() throws IOException {
+        Files.write(dir.resolve("empty.txt"), new byte[0]);
+        StaticFiles files = files(1024);
+        for (String range : new String[]{"bytes=-5", "bytes=0-", "bytes=0-0"}) {
+            String res = get(files, "/static/empty.txt", "range", range);
+            assertTrue(res.startsWith("HTTP/1.1 416 "), range + ": " + res);
+            assertTrue(res.contains("Content-Range: bytes */0\r\n"), res);
+        }
+        assertTrue(get(files, "/static/empty.txt").startsWith("HTTP/1.1 200 "));
+    }
+
+    @Test void suffixAndOpenRanges() throws IOException {
+        Files.writeString(dir.resolve("a.txt"), "0123456789");
+        for (long mapMax : new long[]{1024, 4}) { // mapped, and sent from the cached channel
+            StaticFiles files = files(mapMax);
+            String suffix = get(files, "/static/a.txt", "range", "bytes=-3");
+            assertTrue(suffix.startsWith("HTTP/1.1 206 "), suffix);
+            assertTrue(suffix.contains("Content-Range: bytes 7-9/10\r\n"), suffix);
+            assertTrue(suffix.endsWith("\r\n\r\n789"), suffix);
+            String open = get(files, "/static/a.txt", "range", "bytes=8-");
+            assertTrue(open.endsWith("\r\n\r\n89"), open);
+            assertTrue(get(files, "/static/a.txt", "range", "bytes=10-").startsWith("HTTP/1.1 416 "));
+            assertTrue(get(files, "/static/a.txt").endsWith("\r\n\r\n0123456789"));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request heads the parser benchmarks run over, from a bare curl-style request to a browser-sized one
+ * with cookies and a long, percent-encoded query string. Each names one integer parameter to read
+ * back, so a benchmark touches the query the way a handler would.
+ */
+public enum Corpus {
+    MINIMAL("size",
+            "GET /echo?size=1024 HTTP/1.1\r\n" +
+            "Host: localhost:8083\r\n" +
+            "\r\n"),
+    /** What JMeter's HTTP sampler sends with a typical header manager. */
+    JMETER("ms",
+            "GET /io-slow?ms=20 HTTP/1.1\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Host: localhost:8083\r\n" +
+            "User-Agent: Apache-HttpClient/4.5.14 (Java/17.0.9)\r\n" +
+            "Accept: */*\r\n" +
+            "Accept-Encoding: gzip,deflate\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n"),
+    LONG_QUERY("ioMs",
+            "GET /mixed?cpuMs=5&trace=00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01" +
+            "&q=server%20comparison%20%E2%80%94%20p99%20latency&tags=loop%2Cnio%2Cvirtual%2Cthreads" +
+            "&redirect=https%3A%2F%2Fexample.com%2Fdash%3Fpanel%3D12%26from%3Dnow-6h%26to%3Dnow" +
+            "&utm_source=bench&utm_medium=jmh&utm_campaign=hot-path&session=8f14e45fceea167a5a36dedd4bea2543" +
+            "&ioMs=5 HTTP/1.1\r\n" +
+            "Host: localhost:8083\r\n" +
+            "Connection: keep-alive\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:121.0) Gecko/20100101 Firefox/121.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Referer: http://localhost:8083/dashboard?view=latency&range=6h\r\n" +
+            "Cookie: sid=8f14e45fceea167a5a36dedd4bea2543; theme=dark; tz=Europe%2FBerlin; consent=1\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Pragma: no-cache\r\n" +
+            "\r\n");
+
+    /** Name of an integer query parameter present in {@link #request}. */
+    public final String param;
+    public final String request;
+
+    Corpus(String param, String request) {
+        this.param = param;
+        this.request = request;
+    }
+
+    public byte[] bytes() { return request.getBytes(StandardCharsets.US_ASCII); }
+}
@@ -0,0 +1,68 @@
+package com.example.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The blocking servers' request path: {@link RequestReader} over a keep-alive stream (head scan, header
+ * map, query decoding in {@link HttpRequest}), and routing by the decoded path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    private static final Router ROUTER = Endpoints.standard().build();
+
+    @Param({"MINIMAL", "JMETER", "LONG_QUERY"})
+    public Corpus corpus;
+
+    private RequestReader reader;
+    private String path;
+
+    @Setup
+    public void setup() throws IOException {
+        reader = new RequestReader(new Replay(corpus.bytes()));
+        path = reader.next().path();
+    }
+
+    /** One request off the stream, parsed and queried as a handler would. */
+    @Benchmark
+    public int readRequest() throws IOException {
+        return reader.next().queryInt(corpus.param, -1);
+    }
+
+    @Benchmark
+    public Router.Endpoint route() {
+        return ROUTER.lookup(path);
+    }
+
+    /** The same request back to back forever, as a pipelining client would send it; reads in bulk. */
+    private static final class Replay extends InputStream {
+        private final byte[] src;
+        private int pos;
+
+        Replay(byte[] src) { this.src = src; }
+
+        @Override public int read() {
+            int b = src[pos] & 0xFF;
+            pos = (pos + 1) % src.length;
+            return b;
+        }
+
+        @Override public int read(byte[] dst, int off, int len) {
+            for (int done = 0; done < len; ) {
+                int n = Math.min(len - done, src.length - pos);
+                System.arraycopy(src, pos, dst, off + done, n);
+                done += n;
+                pos = (pos + n) % src.length;
+            }
+            return len;
+        }
+    }
+}
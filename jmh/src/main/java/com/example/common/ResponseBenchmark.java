@@ -0,0 +1,66 @@
+package com.example.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response building: header encoding into an array (blocking servers) and a direct buffer (event loop),
+ * a handler's text response, and {@link Response#writeTo} for text and echo bodies of several sizes.
+ * Writes go to a null stream, so only the copying is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    private static final HeaderTemplate OK = HeaderTemplate.of(200, "OK", "text/plain", true);
+
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    private final byte[] scratch = new byte[8 * 1024]; // as in the blocking servers
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(512);
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private Response text, echo;
+    private int ms = 20;
+
+    @Setup
+    public void setup() {
+        text = Response.ok(new byte[size]);
+        echo = Response.echo(size);
+    }
+
+    @Benchmark
+    public int headerBytes() {
+        return OK.encode(scratch, 0, size);
+    }
+
+    @Benchmark
+    public int headerDirect() {
+        direct.clear();
+        OK.encode(direct, size);
+        return direct.position();
+    }
+
+    /** What {@code /io-slow} allocates per request. */
+    @Benchmark
+    public Response handlerText() {
+        return Response.text("io=" + ms + "ms");
+    }
+
+    @Benchmark
+    public void writeBody() throws IOException {
+        text.writeTo(out, scratch, true);
+    }
+
+    @Benchmark
+    public void writeEcho() throws IOException {
+        echo.writeTo(out, scratch, true);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.loop;
+
+import com.example.common.Corpus;
+import com.example.common.Endpoints;
+import com.example.common.Router;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-place {@link HttpParser} vs the original StringBuilder/split/URLDecoder path of
+ * {@code LoopServer.readAndMaybeParse}, both fed from a direct buffer as the selector thread sees it,
+ * over each {@link Corpus} request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"MINIMAL", "JMETER", "LONG_QUERY"})
+    public Corpus corpus;
+
+    private ByteBuffer buf;
+    private HttpParser parser;
+    private int len;
+
+    @Setup
+    public void setup() {
+        byte[] raw = corpus.bytes();
+        len = raw.length;
+        buf = ByteBuffer.allocateDirect(64 * 1024);
+        buf.put(raw);
+        parser = new HttpParser();
+    }
+
+    @Benchmark
+    public void inPlace(Blackhole bh) throws IOException {
+        parser.begin(buf, 0);
+        parser.parse(len);
+        bh.consume(parser.route(ROUTER));
+        bh.consume(parser.queryInt(corpus.param, -1));
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        StringBuilder header = new StringBuilder();
+        boolean done = false;
+        for (int i = 0; i < len && !done; i++) {
+            header.append((char) (buf.get(i) & 0xFF));
+            int l = header.length();
+            if (l >= 4 && header.charAt(l - 4) == '\r' && header.charAt(l - 3) == '\n' &&
+                    header.charAt(l - 2) == '\r' && header.charAt(l - 1) == '\n') done = true;
+        }
+        String[] lines = header.toString().split("\r\n");
+        String target = lines[0].split(" ")[1];
+        int qi = target.indexOf('?');
+        String path = qi >= 0 ? target.substring(0, qi) : target;
+        Map<String, String> q = legacyQuery(qi >= 0 ? target.substring(qi + 1) : "");
+        bh.consume(ROUTER.lookup(path));
+        bh.consume(Integer.parseInt(q.get(corpus.param)));
+    }
+
+    private static final Router ROUTER = Endpoints.standard().build();
+
+    private static Map<String, String> legacyQuery(String q) {
+        if (q.isEmpty()) return Map.of();
+        Map<String, String> m = new HashMap<>();
+        for (String kv : q.split("&")) {
+            int i = kv.indexOf('=');
+            if (i > 0) m.put(java.net.URLDecoder.decode(kv.substring(0, i), StandardCharsets.UTF_8),
+                    java.net.URLDecoder.decode(kv.substring(i + 1), StandardCharsets.UTF_8));
+            else if (!kv.isEmpty()) m.put(java.net.URLDecoder.decode(kv, StandardCharsets.UTF_8), "");
+        }
+        return m;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark driver: sweeps endpoint x payload size x connection count against each server at a constant
+ * arrival rate (see {@link OpenLoopRun}) and writes the results under {@code loadgen.reportDir}, one
+ * timestamped directory per invocation. Servers are started one at a time from the classpaths the
+ * {@code bench} task passes in, so they never compete with each other for the machine; with
+ * {@code loadgen.targets} already running servers are measured instead.
+ * <p>
+ * Everything is a system property ({@code ./gradlew bench -Ploadgen.rate=2000}):
+ * <pre>
+ * loadgen.servers      single,multi,loop      servers to start: single | multi | loop | virtual | hybrid
+ * loadgen.targets      (unset)                name=host:port,... to measure instead of starting servers
+ * loadgen.endpoints    /echo,/cpu,/io-slow,/mixed   paths, query strings allowed
+ * loadgen.sizes        64,1024,16384          echo payload sizes in bytes
+ * loadgen.connections  16,64,256              connection counts
+ * loadgen.rate         1000                   requests per second, over all connections
+ * loadgen.duration     10                     measured seconds per run
+ * loadgen.warmup       3                      unmeasured seconds before each run
+ * loadgen.pipeline     1                      requests in flight per connection
+ * loadgen.keepAlive    true                   false = one request per connection
+ * </pre>
+ * {@code -Dserver.*} properties are passed on to the servers started here.
+ */
+public final class LoadGen {
+    private LoadGen() {}
+
+    /** A server this driver can start: main class, default port and arguments as in the run tasks. */
+    private record Server(String mainClass, int port, List<String> args) {}
+
+    private static final Map<String, Server> SERVERS = Map.of(
+            "single", new Server("com.example.single.SingleServer", 8081, List.of()),
+            "multi", new Server("com.example.multi.MultiServer", 8082,
+                    List.of(String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors())))),
+            "loop", new Server("com.example.loop.LoopServer", 8083, List.of("0", "rr")),
+            "virtual", new Server("com.example.virtual.VirtualServer", 8084, List.of("10000")),
+            "hybrid", new Server("com.example.loop.HybridServer", 8085, List.of("0", "rr")));
+
+    /** One point of the sweep. {@code size} is 0 for endpoints without a payload. */
+    record Case(String endpoint, int size, int connections) {
+        String path() {
+            if (size == 0) return endpoint;
+            return endpoint + (endpoint.indexOf('?') < 0 ? "?" : "&") + "size=" + size;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("loadgen.rate", 1000);
+        int pipeline = Math.max(1, Integer.getInteger("loadgen.pipeline", 1));
+        boolean keepAlive = Boolean.parseBoolean(System.getProperty("loadgen.keepAlive", "true"));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.getLong("loadgen.warmup", 3));
+        long duration = TimeUnit.SECONDS.toNanos(Long.getLong("loadgen.duration", 10));
+        List<Case> cases = cases();
+
+        Path dir = Path.of(System.getProperty("loadgen.reportDir", "build/reports/loadgen"),
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        Files.createDirectories(dir);
+        Report report = new Report(dir, "rate " + rate + " req/s, " + Long.getLong("loadgen.duration", 10) + " s measured after "
+                + Long.getLong("loadgen.warmup", 3) + " s warmup, pipeline " + pipeline + ", keep-alive " + keepAlive);
+
+        Map<String, InetSocketAddress> targets = targets();
+        for (Map.Entry<String, InetSocketAddress> target : targets.entrySet()) {
+            String name = target.getKey();
+            Process server = System.getProperty("loadgen.targets") == null ? start(name, dir) : null;
+            try {
+                for (Case c : cases) {
+                    OpenLoopRun.Config cfg = new OpenLoopRun.Config(target.getValue(), c.path(), c.connections(), rate,
+                            pipeline, keepAlive, warmup, duration);
+                    OpenLoopRun.Result r = new OpenLoopRun(cfg).run();
+                    report.add(name, c, r);
+                    System.out.printf("[loadgen] %-8s %-24s conns=%-4d p50=%.2fms p99=%.2fms p99.9=%.2fms rps=%.0f errors=%d timeouts=%d%n",
+                            name, c.path(), c.connections(), Report.millis(r.latency().quantile(0.5)),
+                            Report.millis(r.latency().quantile(0.99)), Report.millis(r.latency().quantile(0.999)),
+                            r.throughput(), r.errors(), r.timeouts());
+                    Thread.sleep(500); // let closed connections drain before the next run
+                }
+            } finally {
+                if (server != null) stop(server);
+            }
+        }
+        report.finish();
+        System.out.println("[loadgen] Reports in " + dir.toAbsolutePath());
+    }
+
+    private static List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        for (String endpoint : list("loadgen.endpoints", "/echo,/cpu,/io-slow,/mixed")) {
+            boolean sized = endpoint.startsWith("/echo");
+            for (String size : sized ? list("loadgen.sizes", "64,1024,16384") : List.of("0")) {
+                for (String conns : list("loadgen.connections", "16,64,256")) {
+                    cases.add(new Case(endpoint, Integer.parseInt(size), Integer.parseInt(conns)));
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static Map<String, InetSocketAddress> targets() {
+        Map<String, InetSocketAddress> targets = new LinkedHashMap<>();
+        String given = System.getProperty("loadgen.targets");
+        if (given != null) {
+            for (String t : given.split(",")) {
+                int eq = t.indexOf('='), colon = t.lastIndexOf(':');
+                if (eq < 0 || colon < eq) throw new IllegalArgumentException("Expected name=host:port, got " + t);
+                targets.put(t.substring(0, eq).trim(),
+                        new InetSocketAddress(t.substring(eq + 1, colon).trim(), Integer.parseInt(t.substring(colon + 1).trim())));
+            }
+            return targets;
+        }
+        for (String name : list("loadgen.servers", "single,multi,loop")) {
+            Server s = SERVERS.get(name);
+            if (s == null) throw new IllegalArgumentException("Unknown server " + name + ", expected one of " + SERVERS.keySet());
+            targets.put(name, new InetSocketAddress("127.0.0.1", s.port()));
+        }
+        return targets;
+    }
+
+    /** Start {@code name} on the JVM running this driver, its output going to {@code dir}. */
+    private static Process start(String name, Path dir) throws IOException, InterruptedException {
+        Server s = SERVERS.get(name);
+        String cp = System.getProperty("loadgen.cp." + name);
+        if (cp == null) throw new IllegalStateException("No classpath for " + name + " (loadgen.cp." + name + "); run through ./gradlew bench or set loadgen.targets");
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ProcessHandle.current().info().command().orElse("java"));
+        cmd.add("-cp");
+        cmd.add(cp);
+        System.getProperties().stringPropertyNames().stream()
+                .filter(k -> k.startsWith("server."))
+                .forEach(k -> cmd.add("-D" + k + "=" + System.getProperty(k)));
+        cmd.add(s.mainClass());
+        cmd.add(String.valueOf(s.port()));
+        cmd.addAll(s.args());
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true)
+                .redirectOutput(dir.resolve(name + "-server.log").toFile()).start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("127.0.0.1", s.port()), 1000);
+                return p;
+            } catch (IOException e) {
+                if (!p.isAlive() || System.nanoTime() > deadline) {
+                    stop(p);
+                    throw new IOException(name + " did not start listening on " + s.port() + ", see " + name + "-server.log");
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void stop(Process p) throws InterruptedException {
+        p.destroy();
+        if (!p.waitFor(5, TimeUnit.SECONDS)) p.destroyForcibly().waitFor();
+    }
+
+    private static List<String> list(String key, String def) {
+        List<String> items = new ArrayList<>();
+        for (String s : System.getProperty(key, def).split(",")) if (!s.isBlank()) items.add(s.trim());
+        return items;
+    }
+}
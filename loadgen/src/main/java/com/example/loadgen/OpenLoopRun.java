@@ -0,0 +1,271 @@
+package com.example.loadgen;
+
+import com.example.common.Histogram;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One open-loop run: requests are due at a constant total rate, spread round-robin over
+ * {@code connections}, whether or not earlier ones have been answered. Latency is measured from the
+ * time a request was due, not from when it could actually be sent, so a stalled server is charged for
+ * every request it held back (coordinated-omission correction); service time, from the actual send,
+ * is kept alongside for comparison.
+ * <p>
+ * Each connection has a writer and a reader virtual thread; up to {@code pipeline} requests may be
+ * outstanding on it. A failed connection has its outstanding requests counted as errors and is
+ * reopened by the writer. Whatever is unanswered a grace period after the last request was due
+ * counts as a timeout. Like latencies, errors and timeouts count only for requests due after warmup.
+ */
+final class OpenLoopRun {
+    private static final long GRACE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    record Config(InetSocketAddress target, String path, int connections, int rate, int pipeline,
+                  boolean keepAlive, long warmupNanos, long durationNanos) {
+        Config {
+            // rate is at most one request per nanosecond, so the period between due times is never 0
+            if (rate <= 0 || rate > 1_000_000_000) throw new IllegalArgumentException("rate must be 1..1e9 requests/s, got " + rate);
+            if (connections <= 0) throw new IllegalArgumentException("connections must be positive, got " + connections);
+            if (pipeline <= 0) throw new IllegalArgumentException("pipeline must be positive, got " + pipeline);
+            if (warmupNanos < 0) throw new IllegalArgumentException("warmup must not be negative");
+            if (durationNanos <= 0) throw new IllegalArgumentException("duration must be positive");
+        }
+    }
+
+    record Result(Histogram.Snapshot latency, Histogram.Snapshot service, long completed, long errors,
+                  long timeouts, double seconds) {
+        double throughput() { return completed / seconds; }
+    }
+
+    private final Config cfg;
+    private final byte[] request;
+    private final Histogram latency = new Histogram(), service = new Histogram();
+    private final AtomicLong completed = new AtomicLong(), errors = new AtomicLong(), timeouts = new AtomicLong();
+    private long start, measureFrom, end;
+
+    OpenLoopRun(Config cfg) {
+        this.cfg = cfg;
+        this.request = ("GET " + cfg.path() + " HTTP/1.1\r\nHost: " + cfg.target().getHostString() + "\r\n"
+                + (cfg.keepAlive() ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    Result run() throws InterruptedException {
+        long period = 1_000_000_000L / cfg.rate();
+        start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100); // let every writer get going
+        measureFrom = start + cfg.warmupNanos();
+        end = measureFrom + cfg.durationNanos();
+        List<Thread> writers = new ArrayList<>();
+        for (int k = 0; k < cfg.connections(); k++) {
+            long first = start + k * period, step = period * cfg.connections();
+            writers.add(Thread.ofVirtual().name("writer-" + k).start(() -> drive(first, step)));
+        }
+        for (Thread t : writers) t.join();
+        double seconds = Math.min(System.nanoTime(), end) - measureFrom;
+        return new Result(latency.snapshot(), service.snapshot(), completed.get(), errors.get(), timeouts.get(),
+                Math.max(seconds, 1) / 1e9);
+    }
+
+    /** One connection's schedule: due times {@code first}, {@code first + step}, ... until the run ends. */
+    private void drive(long first, long step) {
+        Session s = null;
+        for (long due = first; due < end; due += step) {
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+            try {
+                if (s == null || s.failed) {
+                    if (s != null) s.abandon();
+                    s = null;
+                    s = new Session();
+                }
+                s.window.acquire();
+            } catch (IOException e) { // could not connect: this request is lost
+                if (measured(due)) errors.incrementAndGet();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (s.failed) { // the reader gave up while we waited for a slot
+                if (measured(due)) errors.incrementAndGet();
+                continue;
+            }
+            try {
+                s.send(due);
+            } catch (IOException e) {
+                s.fail(); // counted with the rest of the outstanding requests when the session is replaced
+            }
+        }
+        if (s != null) s.finish(end + GRACE_NANOS);
+    }
+
+    private boolean measured(long due) { return due >= measureFrom; }
+
+    /** One socket with its in-flight requests, oldest first; replaced wholesale on failure. */
+    private final class Session {
+        final Socket socket;
+        final OutputStream out;
+        final Semaphore window;
+        final long[] dueAt, sentAt; // ring of outstanding requests, capacity = pipeline
+        final AtomicLong sent = new AtomicLong(), answered = new AtomicLong();
+        final Thread reader;
+        volatile boolean failed;
+
+        Session() throws IOException {
+            int depth = cfg.keepAlive() ? cfg.pipeline() : 1;
+            window = new Semaphore(depth);
+            dueAt = new long[depth];
+            sentAt = new long[depth];
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(cfg.target(), 5000);
+            out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            reader = Thread.ofVirtual().start(() -> read(in));
+        }
+
+        void send(long due) throws IOException {
+            int slot = (int) (sent.get() % dueAt.length);
+            dueAt[slot] = due;
+            sentAt[slot] = System.nanoTime();
+            sent.incrementAndGet(); // publishes the slot to the reader
+            out.write(request);
+            out.flush();
+        }
+
+        private void read(InputStream in) {
+            try {
+                while (true) {
+                    int status = readResponse(in);
+                    long now = System.nanoTime();
+                    long n = answered.get();
+                    if (n >= sent.get()) throw new IOException("Response without a request");
+                    int slot = (int) (n % dueAt.length);
+                    long due = dueAt[slot], sentTime = sentAt[slot];
+                    answered.incrementAndGet();
+                    window.release();
+                    if (!measured(due)) continue;
+                    if (status / 100 == 2) {
+                        latency.record(now - due);
+                        service.record(now - sentTime);
+                        completed.incrementAndGet();
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                    if (!cfg.keepAlive()) throw new EOFException(); // one request per connection
+                }
+            } catch (IOException e) {
+                fail();
+            }
+        }
+
+        /** Close; the writer counts what was still outstanding when it replaces or finishes the session. */
+        void fail() {
+            failed = true;
+            try { socket.close(); } catch (IOException ignored) {}
+            window.release(dueAt.length); // unblock a writer waiting for a slot
+        }
+
+        /** Count unanswered requests as errors and drop the session. */
+        void abandon() throws InterruptedException {
+            fail();
+            reader.join();
+            errors.addAndGet(unansweredMeasured());
+        }
+
+        /** Wait until everything sent is answered or {@code deadline} passes; the rest are timeouts. */
+        void finish(long deadline) {
+            long wait;
+            while (!failed && outstanding() > 0 && (wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+            boolean timedOut = !failed;
+            fail();
+            try { reader.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            if (timedOut) timeouts.addAndGet(unansweredMeasured());
+            else errors.addAndGet(unansweredMeasured());
+        }
+
+        private long outstanding() { return sent.get() - answered.get(); }
+
+        /** Outstanding requests that were due after warmup; only once the reader has stopped. */
+        private long unansweredMeasured() {
+            long n = 0;
+            for (long i = answered.get(), to = sent.get(); i < to; i++) if (measured(dueAt[(int) (i % dueAt.length)])) n++;
+            return n;
+        }
+    }
+
+    /**
+     * Reads one response (status line, headers, then a Content-Length or chunked body); returns the status
+     * code. A response with neither has no body: the servers here never delimit one by closing.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int sp = statusLine.indexOf(' ');
+        if (sp < 0 || statusLine.length() < sp + 4) throw new IOException("Bad status line: " + statusLine);
+        int status = number(statusLine.substring(sp + 1, sp + 4), 10);
+        long length = 0;
+        boolean chunked = false;
+        for (String line; !(line = readLine(in)).isEmpty(); ) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) length = number(line.substring(15).trim(), 10);
+            else if (line.regionMatches(true, 0, "Transfer-Encoding:", 0, 18)) chunked = line.substring(18).trim().equalsIgnoreCase("chunked");
+        }
+        if (!chunked) {
+            skip(in, length);
+            return status;
+        }
+        while (true) {
+            String size = readLine(in);
+            int ext = size.indexOf(';');
+            long n = number((ext < 0 ? size : size.substring(0, ext)).trim(), 16);
+            if (n == 0) break;
+            skip(in, n);
+            if (!readLine(in).isEmpty()) throw new IOException("Chunk longer than its size line");
+        }
+        while (!readLine(in).isEmpty()) {} // trailers
+        return status;
+    }
+
+    /** A non-negative number in {@code radix}; anything else is a protocol error, not a crash of the reader. */
+    private static int number(String s, int radix) throws IOException {
+        try {
+            int n = Integer.parseInt(s, radix);
+            if (n >= 0) return n;
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IOException("Bad number: " + s);
+    }
+
+    private static void skip(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long n = in.skip(length);
+            if (n <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                n = 1;
+            }
+            length -= n;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        for (int c; (c = in.read()) != '\n'; ) {
+            if (c < 0) throw new EOFException();
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+}
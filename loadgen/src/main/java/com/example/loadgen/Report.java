@@ -0,0 +1,93 @@
+package com.example.loadgen;
+
+import com.example.common.Histogram;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes one invocation's results: an HdrHistogram-style {@code .hgrm} percentile distribution per run
+ * (loadable in the HdrHistogram plotter), {@code summary.csv} with a row per run, and
+ * {@code comparison.md}, which puts the servers side by side for each point of the sweep.
+ */
+final class Report {
+    private static final int TICKS_PER_HALF = 5;
+
+    private final Path dir;
+    private final String setup;
+    private final Map<LoadGen.Case, Map<String, OpenLoopRun.Result>> results = new LinkedHashMap<>();
+    private final List<String> csv = new ArrayList<>();
+
+    Report(Path dir, String setup) {
+        this.dir = dir;
+        this.setup = setup;
+        csv.add("server,path,connections,completed,errors,timeouts,rps,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,mean_ms,service_p50_ms,service_p99_ms");
+    }
+
+    static double millis(long nanos) { return nanos / 1e6; }
+
+    void add(String server, LoadGen.Case c, OpenLoopRun.Result r) throws IOException {
+        results.computeIfAbsent(c, k -> new LinkedHashMap<>()).put(server, r);
+        Histogram.Snapshot l = r.latency(), s = r.service();
+        csv.add(String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                server, c.path(), c.connections(), r.completed(), r.errors(), r.timeouts(), r.throughput(),
+                millis(l.quantile(0.5)), millis(l.quantile(0.9)), millis(l.quantile(0.99)), millis(l.quantile(0.999)),
+                millis(l.quantile(1)), l.count() == 0 ? 0 : millis(l.sum() / l.count()),
+                millis(s.quantile(0.5)), millis(s.quantile(0.99))));
+        String file = server + "_" + c.path().replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_|_$", "") + "_c" + c.connections() + ".hgrm";
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dir.resolve(file)))) {
+            writeDistribution(out, l);
+        }
+    }
+
+    /** Percentiles at {@value #TICKS_PER_HALF} ticks per halving of the distance to 100%, as HdrHistogram prints them. */
+    private static void writeDistribution(PrintWriter out, Histogram.Snapshot h) {
+        out.printf(Locale.ROOT, "%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        long count = h.count();
+        if (count > 0) {
+            for (double half = 1; ; half /= 2) {
+                double base = 1 - half;
+                if (1 / half > count) break; // finer than one sample
+                for (int t = 0; t < TICKS_PER_HALF; t++) line(out, h, base + half / 2 * t / TICKS_PER_HALF);
+            }
+            out.printf(Locale.ROOT, "%12.3f %14.12f %10d%n", millis(h.quantile(1)), 1.0, count);
+        }
+        out.printf(Locale.ROOT, "#[Mean    = %12.3f, Max            = %12.3f]%n",
+                count == 0 ? 0 : millis(h.sum() / count), millis(h.quantile(1)));
+        out.printf(Locale.ROOT, "#[Total count    = %12d, Unit = milliseconds]%n", count);
+    }
+
+    private static void line(PrintWriter out, Histogram.Snapshot h, double p) {
+        out.printf(Locale.ROOT, "%12.3f %14.12f %10d %14.2f%n", millis(h.quantile(p)), p,
+                (long) Math.ceil(p * h.count()), 1 / (1 - p));
+    }
+
+    void finish() throws IOException {
+        Files.write(dir.resolve("summary.csv"), csv);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dir.resolve("comparison.md")))) {
+            out.println("# Server comparison");
+            out.println();
+            out.println("Open loop, " + setup + ". Latency is measured from when each request was due.");
+            out.println();
+            out.println("| path | conns | server | p50 ms | p99 ms | p99.9 ms | max ms | achieved rps | errors | timeouts |");
+            out.println("|---|---:|---|---:|---:|---:|---:|---:|---:|---:|");
+            for (Map.Entry<LoadGen.Case, Map<String, OpenLoopRun.Result>> e : results.entrySet()) {
+                for (Map.Entry<String, OpenLoopRun.Result> s : e.getValue().entrySet()) {
+                    OpenLoopRun.Result r = s.getValue();
+                    Histogram.Snapshot l = r.latency();
+                    out.printf(Locale.ROOT, "| %s | %d | %s | %.2f | %.2f | %.2f | %.2f | %.0f | %d | %d |%n",
+                            e.getKey().path(), e.getKey().connections(), s.getKey(), millis(l.quantile(0.5)),
+                            millis(l.quantile(0.99)), millis(l.quantile(0.999)), millis(l.quantile(1)),
+                            r.throughput(), r.errors(), r.timeouts());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.loadgen;
+
+import com.example.common.Histogram;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+import static com.example.loadgen.Report.millis;
+
+/**
+ * Per-stage latency breakdown of a flight recording taken with the servers' {@code server.*} events
+ * (see {@code com.example.common.Trace}):
+ * <pre>
+ * java -XX:StartFlightRecording=filename=run.jfr ... (or jcmd &lt;pid&gt; JFR.start / JFR.dump)
+ * ./gradlew traceReport -Pjfr=run.jfr
+ * </pre>
+ * Per route, for every request written in full: parse, time in each queue it passed through
+ * (connection-level queues, such as MultiServer's worker queue, count against the connection's first
+ * request), handler time less the queues inside it, write time from the response being ready to its
+ * last byte (less the hand-off back to an event loop, itself a queue), and the total from the first
+ * byte. Then the slowest requests, stage by stage. Kernel accept backlog happens before accept() and
+ * is not visible here.
+ */
+public final class TraceReport {
+    private static final int SLOWEST = 10;
+
+    private final Set<String> connectionQueues = new HashSet<>(); // "queue:" names seen with request 0
+    /** In the order a request meets them: connection queues, parse, request queues, handler, write, total. */
+    private final Comparator<String> stageOrder = Comparator.comparingInt(this::rank).thenComparing(Comparator.naturalOrder());
+
+    private TraceReport() {}
+
+    /** What the events say about one request; times in epoch nanoseconds. */
+    private static final class Req {
+        final long id;
+        long conn;
+        String route;
+        long parsedAt, parseNanos, startAt, endAt, writtenAt;
+        final List<Span> queues = new ArrayList<>();
+        final Map<String, ArrayDeque<Long>> open = new HashMap<>(); // enqueued, not yet dequeued, per queue
+
+        Req(long id) { this.id = id; }
+
+        boolean complete() { return route != null && startAt > 0 && endAt > 0 && writtenAt > 0; }
+
+        long firstByte() { return parsedAt - parseNanos; }
+
+        long queuedWithin(long from, long to) {
+            long n = 0;
+            for (Span s : queues) if (s.from >= from && s.to <= to) n += s.to - s.from;
+            return n;
+        }
+    }
+
+    private record Span(String queue, long from, long to) {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: TraceReport <recording.jfr>");
+            System.exit(2);
+        }
+        new TraceReport().print(args[0]);
+    }
+
+    /** Read {@code file} and print its tables; one report per instance. */
+    private void print(String file) throws IOException {
+        Map<Long, Req> reqs = new HashMap<>();
+        Map<Long, List<Span>> connQueues = new HashMap<>();
+        Map<Long, ArrayDeque<Long>> connOpen = new HashMap<>();
+        long accepted = 0;
+        List<RecordedEvent> events = RecordingFile.readAllEvents(Path.of(file));
+        events.removeIf(e -> !e.getEventType().getName().startsWith("server."));
+        events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+        for (RecordedEvent e : events) {
+            long at = nanos(e.getStartTime());
+            String type = e.getEventType().getName();
+            if (type.equals("server.Accept")) {
+                accepted++;
+                continue;
+            }
+            long id = e.getLong("requestId");
+            if (id == 0) { // connection-level queue
+                long conn = e.getLong("connectionId");
+                connectionQueues.add("queue:" + e.getString("queue"));
+                if (type.equals("server.Enqueue")) connOpen.computeIfAbsent(conn, k -> new ArrayDeque<>()).add(at);
+                else if (type.equals("server.Dequeue") && connOpen.containsKey(conn) && !connOpen.get(conn).isEmpty())
+                    connQueues.computeIfAbsent(conn, k -> new ArrayList<>()).add(new Span(e.getString("queue"), connOpen.get(conn).poll(), at));
+                continue;
+            }
+            Req r = reqs.computeIfAbsent(id, Req::new);
+            switch (type) {
+                case "server.Parse" -> {
+                    r.conn = e.getLong("connectionId");
+                    r.route = e.getString("route");
+                    r.parsedAt = at;
+                    r.parseNanos = e.getLong("parseTime");
+                }
+                case "server.Enqueue" -> r.open.computeIfAbsent(e.getString("queue"), k -> new ArrayDeque<>()).add(at);
+                case "server.Dequeue" -> {
+                    ArrayDeque<Long> q = r.open.get(e.getString("queue"));
+                    if (q != null && !q.isEmpty()) r.queues.add(new Span(e.getString("queue"), q.poll(), at));
+                }
+                case "server.HandlerStart" -> r.startAt = at;
+                case "server.HandlerEnd" -> r.endAt = at;
+                case "server.WriteComplete" -> r.writtenAt = at;
+                default -> {}
+            }
+        }
+
+        // Connection-level queue time goes to the connection's first traced request.
+        Map<Long, Req> firstOfConn = new HashMap<>();
+        for (Req r : reqs.values()) {
+            if (r.route == null) continue;
+            firstOfConn.merge(r.conn, r, (a, b) -> a.parsedAt <= b.parsedAt ? a : b);
+        }
+        Map<Long, List<Span>> extra = new HashMap<>();
+        connQueues.forEach((conn, spans) -> {
+            Req first = firstOfConn.get(conn);
+            if (first != null) extra.put(first.id, spans);
+        });
+
+        Map<String, Map<String, Histogram>> byRoute = new TreeMap<>();
+        List<Map.Entry<Req, Map<String, Long>>> all = new ArrayList<>();
+        long incomplete = 0;
+        for (Req r : reqs.values()) {
+            if (!r.complete()) {
+                incomplete++;
+                continue;
+            }
+            Map<String, Long> stages = new LinkedHashMap<>();
+            long start = r.firstByte();
+            for (Span s : extra.getOrDefault(r.id, List.of())) {
+                stages.merge("queue:" + s.queue(), s.to() - s.from(), Long::sum);
+                start = Math.min(start, s.from());
+            }
+            stages.put("parse", r.parseNanos);
+            for (Span s : r.queues) stages.merge("queue:" + s.queue(), s.to() - s.from(), Long::sum);
+            stages.put("handler", r.endAt - r.startAt - r.queuedWithin(r.startAt, r.endAt));
+            stages.put("write", r.writtenAt - r.endAt - r.queuedWithin(r.endAt, r.writtenAt));
+            stages.put("total", r.writtenAt - start);
+            Map<String, Histogram> h = byRoute.computeIfAbsent(r.route, k -> new TreeMap<>(stageOrder));
+            stages.forEach((stage, v) -> h.computeIfAbsent(stage, k -> new Histogram()).record(Math.max(0, v)));
+            all.add(Map.entry(r, stages));
+        }
+
+        System.out.printf(Locale.ROOT, "%s: %d connections accepted, %d requests traced, %d not seen through (in flight at either end of the recording)%n%n",
+                file, accepted, all.size(), incomplete);
+        System.out.println("| route | stage | count | mean ms | p50 ms | p90 ms | p99 ms | max ms |");
+        System.out.println("|---|---|---:|---:|---:|---:|---:|---:|");
+        byRoute.forEach((route, stages) -> stages.forEach((stage, hist) -> {
+            Histogram.Snapshot s = hist.snapshot();
+            System.out.printf(Locale.ROOT, "| %s | %s | %d | %.3f | %.3f | %.3f | %.3f | %.3f |%n", route, stage, s.count(),
+                    millis(s.sum() / Math.max(1, s.count())), millis(s.quantile(0.5)), millis(s.quantile(0.9)),
+                    millis(s.quantile(0.99)), millis(s.quantile(1)));
+        }));
+
+        all.sort(Comparator.comparingLong((Map.Entry<Req, Map<String, Long>> x) -> x.getValue().get("total")).reversed());
+        System.out.println();
+        System.out.println("Slowest requests (ms):");
+        for (Map.Entry<Req, Map<String, Long>> x : all.subList(0, Math.min(SLOWEST, all.size()))) {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "  #%d %s conn=%d", x.getKey().id, x.getKey().route, x.getKey().conn));
+            x.getValue().forEach((stage, v) -> sb.append(String.format(Locale.ROOT, " %s=%.3f", stage, millis(v))));
+            System.out.println(sb);
+        }
+    }
+
+    private int rank(String stage) {
+        return switch (stage) {
+            case "parse" -> 1;
+            case "handler" -> 3;
+            case "write" -> 4;
+            case "total" -> 5;
+            default -> connectionQueues.contains(stage) ? 0 : 2;
+        };
+    }
+
+    private static long nanos(Instant t) { return t.getEpochSecond() * 1_000_000_000L + t.getNano(); }
+}
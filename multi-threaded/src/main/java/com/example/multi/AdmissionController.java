@@ -0,0 +1,56 @@
+package com.example.multi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive cap on connections admitted to the pool (running + queued), AIMD-style as in Netflix's
+ * concurrency-limits: every request latency under target that finds the limit at least half used
+ * grows it by one; a latency over target, or a connection dropped for waiting too long, shrinks it
+ * by {@link #BACKOFF}, at most once per target interval so one slow burst does not collapse it.
+ * Slots are per connection, not per request: a pooled worker serves one connection until it closes,
+ * so a request cannot be queued or shed apart from the connection that carries it.
+ */
+final class AdmissionController {
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit, maxLimit;
+    private final long targetNanos;
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+
+    AdmissionController(int minLimit, int maxLimit, long targetNanos) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetNanos = targetNanos;
+        this.limit = new AtomicInteger(maxLimit);
+    }
+
+    /** Take a slot if under the current limit. Pair every success with {@link #release()}. */
+    boolean tryAcquire() {
+        while (true) {
+            int n = inFlight.get();
+            if (n >= limit.get()) return false;
+            if (inFlight.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    void release() { inFlight.decrementAndGet(); }
+
+    /** Feed one observation: a served request's latency, or {@code dropped} for work shed under load. */
+    void onSample(long latencyNanos, boolean dropped) {
+        if (dropped || latencyNanos > targetNanos) {
+            long now = System.nanoTime(), last = lastDecrease.get();
+            if (now - last >= targetNanos && lastDecrease.compareAndSet(last, now)) {
+                limit.updateAndGet(l -> Math.max(minLimit, (int) (l * BACKOFF)));
+            }
+        } else if (inFlight.get() * 2 >= limit.get()) {
+            limit.updateAndGet(l -> Math.min(maxLimit, l + 1));
+        }
+    }
+
+    int limit() { return limit.get(); }
+
+    int inFlight() { return inFlight.get(); }
+}
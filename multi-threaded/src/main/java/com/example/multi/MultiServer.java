@@ -1,175 +1,150 @@
 package com.example.multi;
 
+import com.example.common.Endpoints;
+import com.example.common.HeaderTemplate;
+import com.example.common.Listeners;
+import com.example.common.Metrics;
+import com.example.common.RequestLoop;
+import com.example.common.Router;
+import com.example.common.Threads;
+import com.example.common.Trace;
+
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
-import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MultiServer {
+    private static final int QUEUE = 8192;
+    private static final HeaderTemplate BUSY = HeaderTemplate.of(503, "Service Unavailable", "text/plain", false, "Retry-After: 1\r\n");
+    private static final byte[] BUSY_BODY = "busy".getBytes(StandardCharsets.US_ASCII);
+    private static final LongAdder ACCEPTED = Metrics.SHARED.counter("connections_accepted", "Connections accepted.");
+    private static final LongAdder REJECTED = Metrics.SHARED.counter("connections_rejected", "Connections turned away with 503.");
+    private static final LongAdder ACTIVE = new LongAdder();
+
     public static void main(String[] args) throws Exception {
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 8082;
         int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(2, Runtime.getRuntime().availableProcessors());
-        ExecutorService pool = new ThreadPoolExecutor(
-                threads, threads,
-                0L, TimeUnit.MILLISECONDS,
-                new ArrayBlockingQueue<>(8192),
-                new ThreadFactory() {
-                    private final ThreadFactory def = Executors.defaultThreadFactory();
-                    @Override public Thread newThread(Runnable r) {
-                        Thread t = def.newThread(r);
-                        t.setName("worker-" + t.getId());
-                        t.setDaemon(true);
-                        return t;
-                    }
-                },
-                new ThreadPoolExecutor.AbortPolicy()
-        );
-        try (ServerSocket server = new ServerSocket()) {
-            server.setReuseAddress(true);
-            server.bind(new InetSocketAddress(port));
-            System.out.println("[multi-threaded] Listening on port " + port + " with " + threads + " threads");
-            while (true) {
-                Socket sock = server.accept();
-                pool.execute(() -> {
-                    try (Socket s = sock) {
-                        s.setSoTimeout(15000);
-                        handleConnection(s);
-                    } catch (IOException e) {
-                        // ignore noisy errors from clients closing
-                    }
-                });
-            }
-        } finally {
-            pool.shutdown();
+        // A connection still queued after this long is answered 503 instead of served late
+        long queueBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("server.multi.queueBudgetMs", 1000));
+        // Request latency above this shrinks the admission limit
+        long targetNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("server.multi.targetLatencyMs", 500));
+        // Sharded (-Pserver.shards=K): K listeners, each with its own accept thread, pool and admission
+        // limit over a share of the workers and queue
+        Shard[] shards = new Shard[Listeners.SHARDS];
+        threads = Math.max(threads, shards.length); // at least one worker per shard
+        for (int i = 0; i < shards.length; i++) {
+            int share = threads / shards.length + (i < threads % shards.length ? 1 : 0);
+            shards[i] = new Shard(Listeners.serverSocket(port, 0), share, QUEUE / shards.length, queueBudgetNanos, targetNanos);
         }
+        Metrics.SHARED.gauge("connections_active", "Connections being served by a worker.", ACTIVE::sum);
+        Metrics.SHARED.gauge("pool_queue_depth", "Connections waiting for a worker.", () -> {
+            long n = 0;
+            for (Shard s : shards) n += s.pool.getQueue().size();
+            return n;
+        });
+        Metrics.SHARED.gauge("admission_limit", "Current adaptive admission limit.", () -> {
+            long n = 0;
+            for (Shard s : shards) n += s.admission.limit();
+            return n;
+        });
+        System.out.println("[multi-threaded] Listening on port " + port + " with " + threads + " threads"
+                + (shards.length > 1 ? " across " + shards.length + " SO_REUSEPORT shards" : ""));
+        for (int i = 1; i < shards.length; i++) new Thread(shards[i]::serve, "acceptor-" + i).start();
+        shards[0].serve();
     }
 
-    private static void handleConnection(Socket sock) throws IOException {
-        InputStream in = sock.getInputStream();
-        OutputStream out = sock.getOutputStream();
-        while (true) {
-            try {
-                HttpRequest req = readRequest(in);
-                if (req == null) break;
-                byte[] body = route(req);
-                writeResponse(out, 200, "OK", "text/plain", body, true);
-            } catch (SocketTimeoutException e) {
-                break;
-            }
-        }
-    }
+    /** One listener with its own accept thread, worker pool and admission limit. */
+    private static final class Shard {
+        final ServerSocket server;
+        final ThreadPoolExecutor pool;
+        final AdmissionController admission;
+        final RequestLoop requests;
+        final long queueBudgetNanos;
 
-    private static HttpRequest readRequest(InputStream in) throws IOException {
-        ByteArrayOutputStream headerBuf = new ByteArrayOutputStream();
-        int c, last4 = 0;
-        while ((c = in.read()) != -1) {
-            headerBuf.write(c);
-            last4 = ((last4 << 8) | (c & 0xFF)) & 0xFFFFFFFF;
-            if (last4 == 0x0D0A0D0A) break; // \r\n\r\n
-            if (headerBuf.size() > 64 * 1024) throw new IOException("Header too large");
-        }
-        if (headerBuf.size() == 0 && c == -1) return null;
-        String headers = headerBuf.toString(StandardCharsets.US_ASCII);
-        String[] lines = headers.split("\r\n");
-        if (lines.length == 0) return null;
-        String[] parts = lines[0].split(" ");
-        if (parts.length < 2) return null;
-        String method = parts[0];
-        String target = parts[1];
-        Map<String, String> headerMap = new HashMap<>();
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i];
-            int idx = line.indexOf(':');
-            if (idx > 0) headerMap.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+        Shard(ServerSocket server, int threads, int queue, long queueBudgetNanos, long targetNanos) {
+            this.server = server;
+            this.queueBudgetNanos = queueBudgetNanos;
+            this.admission = new AdmissionController(threads, threads + queue, targetNanos);
+            this.requests = new RequestLoop(ROUTER, new RequestLoop.Hooks() {
+                @Override public void served(long nanos) { admission.onSample(nanos, false); }
+            });
+            this.pool = new ThreadPoolExecutor(
+                    threads, threads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queue),
+                    Threads.daemon("worker-"),
+                    new ThreadPoolExecutor.AbortPolicy()
+            );
         }
-        int contentLen = headerMap.containsKey("content-length") ? Integer.parseInt(headerMap.get("content-length")) : 0;
-        byte[] body = new byte[contentLen];
-        for (int r, read = 0; read < contentLen; read += r) {
-            r = in.read(body, read, contentLen - read);
-            if (r == -1) throw new EOFException("Unexpected EOF in body");
-        }
-        return new HttpRequest(method, target, headerMap, body);
-    }
 
-    private static void writeResponse(OutputStream out, int code, String reason, String contentType, byte[] body, boolean keepAlive) throws IOException {
-        String hdr =
-                "HTTP/1.1 " + code + " " + reason + "\r\n" +
-                        "Content-Type: " + contentType + "\r\n" +
-                        "Content-Length: " + body.length + "\r\n" +
-                        "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
-                        "\r\n";
-        out.write(hdr.getBytes(StandardCharsets.US_ASCII));
-        out.write(body);
-        out.flush();
-    }
-
-    // ---- Routing (same as single) ----
-    private static byte[] route(HttpRequest req) {
-        String path = req.path;
-        Map<String, String> q = req.query;
-        try {
-            if (path.equals("/echo")) {
-                int size = parseIntOr(q.get("size"), 1024);
-                return randomBody(size);
-            } else if (path.equals("/cpu")) {
-                int ms = parseIntOr(q.get("ms"), 5);
-                busySpin(ms);
-                return msg("cpu=" + ms + "ms");
-            } else if (path.equals("/io-slow")) {
-                int ms = parseIntOr(q.get("ms"), 20);
-                Thread.sleep(ms);
-                return msg("io=" + ms + "ms");
-            } else if (path.equals("/mixed")) {
-                int cpu = parseIntOr(q.get("cpuMs"), 5);
-                int io = parseIntOr(q.get("ioMs"), 5);
-                busySpin(cpu);
-                Thread.sleep(io);
-                return msg("mixed cpu=" + cpu + "ms io=" + io + "ms");
-            } else {
-                return msg("ok");
+        void serve() {
+            try (ServerSocket server = this.server) {
+                while (true) {
+                    Socket sock = Listeners.accept(server);
+                    ACCEPTED.increment();
+                    if (!admission.tryAcquire()) {
+                        reject(sock);
+                        continue;
+                    }
+                    long acceptedAt = System.nanoTime();
+                    long connId = Trace.nextId();
+                    Trace.accepted(connId);
+                    Trace.enqueued(connId, 0, "workers");
+                    try {
+                        pool.execute(() -> {
+                            Trace.dequeued(connId, 0, "workers");
+                            try (Socket s = sock) {
+                                long waited = System.nanoTime() - acceptedAt;
+                                if (waited > queueBudgetNanos) {
+                                    // The client has likely given up already; serving it now only delays the rest.
+                                    admission.onSample(waited, true);
+                                    reject(s);
+                                    return;
+                                }
+                                ACTIVE.increment();
+                                try {
+                                    requests.serve(s, connId, waited);
+                                } finally {
+                                    ACTIVE.decrement();
+                                }
+                            } catch (IOException e) {
+                                // ignore noisy errors from clients closing
+                            } finally {
+                                admission.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        admission.release();
+                        admission.onSample(0, true);
+                        reject(sock);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Listener failed: " + e.getMessage());
+            } finally {
+                pool.shutdown();
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return msg("interrupted");
         }
     }
 
-    private static void busySpin(int ms) {
-        long end = System.nanoTime() + ms * 1_000_000L;
-        long x = 0;
-        while (System.nanoTime() < end) x++;
-    }
-
-    private static byte[] randomBody(int size) {
-        byte[] b = new byte[size];
-        Arrays.fill(b, (byte) 'A');
-        return b;
-    }
-
-    private static byte[] msg(String s) {
-        return s.getBytes(StandardCharsets.UTF_8);
-    }
-
-    static class HttpRequest {
-        final String method, path; final Map<String, String> headers, query; final byte[] body;
-        HttpRequest(String method, String target, Map<String, String> headers, byte[] body) {
-            this.method = method; this.headers = headers; this.body = body;
-            int qi = target.indexOf('?');
-            this.path = qi >= 0 ? target.substring(0, qi) : target;
-            this.query = parseQuery(qi >= 0 ? target.substring(qi + 1) : "");
-        }
-        private Map<String, String> parseQuery(String q) {
-            Map<String, String> m = new HashMap<>();
-            if (!q.isEmpty()) for (String kv : q.split("&")) {
-                int i = kv.indexOf('=');
-                if (i > 0) m.put(dec(kv.substring(0, i)), dec(kv.substring(i + 1)));
-                else if (!kv.isEmpty()) m.put(dec(kv), "");
-            }
-            return m;
+    /** Fast 503 + Retry-After and close; runs on the accept thread, so it never waits for the client. */
+    private static void reject(Socket sock) {
+        REJECTED.increment();
+        try (Socket s = sock) {
+            OutputStream out = s.getOutputStream();
+            byte[] buf = new byte[BUSY.maxLength() + BUSY_BODY.length];
+            int n = BUSY.encode(buf, 0, BUSY_BODY.length);
+            System.arraycopy(BUSY_BODY, 0, buf, n, BUSY_BODY.length);
+            out.write(buf, 0, n + BUSY_BODY.length);
+            s.shutdownOutput();
+            // Discard request bytes already received, so close() sends FIN rather than RST over the 503.
+            InputStream in = s.getInputStream();
+            in.skip(in.available());
+        } catch (IOException ignored) {
         }
-        private String dec(String s) { try { return java.net.URLDecoder.decode(s, StandardCharsets.UTF_8); } catch (Exception e) { return s; } }
     }
 
-    private static int parseIntOr(String v, int def) { try { return v == null ? def : Integer.parseInt(v); } catch (Exception e) { return def; } }
+    private static final Router ROUTER = Endpoints.standard().build();
 }
@@ -0,0 +1,421 @@
+package com.example.loop;
+
+import com.example.common.Listeners;
+import com.example.common.Trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One selector thread. Owns every channel registered with its {@link Selector}; other threads
+ * hand over new connections through {@link #register(SocketChannel)} and finished responses
+ * through {@link #complete}, and anything else through {@link #execute}. None ever touches a {@link SelectionKey} off the loop thread.
+ */
+final class EventLoop implements Runnable {
+    private static final int STREAM_BURST = 16; // stream pieces written per flush before other connections get a turn
+    private static final int READ_BURST = 16;   // full-buffer reads per readable event before other connections get a turn
+
+    private final String name;
+    private final Selector selector;
+    private final int lane; // this loop's index, and its lane in the offload pool
+    private final OffloadPool cpuPool;
+    private final LoopServer.Dispatcher dispatcher;
+    private final TimingWheel wheel = new TimingWheel();
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // timers armed and work handed over from other threads
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>(); // many producers, one consumer
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicInteger connections = new AtomicInteger();
+    private ServerSocketChannel server; // set only when this loop also accepts
+    private volatile Thread thread;
+    private ByteBuffer[] gather = new ByteBuffer[LoopServer.MAX_PIPELINE];
+    // Connections with responses made ready during this iteration; each gets one write at its end.
+    private final ArrayList<LoopServer.Conn> toFlush = new ArrayList<>();
+    private boolean readsPaused; // some connection was left unread because the offload pool was saturated
+
+    /** A response produced off-loop, waiting to be applied by the selector thread. */
+    private record Completion(LoopServer.Conn conn, LoopServer.Pending slot, ByteBuffer[] response) {}
+
+    EventLoop(int lane, OffloadPool cpuPool, LoopServer.Dispatcher dispatcher) throws IOException {
+        this.lane = lane;
+        this.name = "loop-" + lane;
+        this.selector = Selector.open();
+        this.cpuPool = cpuPool;
+        this.dispatcher = dispatcher;
+        cpuPool.onDrain(this::wakeup);
+    }
+
+    String name() { return name; }
+
+    int lane() { return lane; }
+
+    LoopServer.Dispatcher dispatcher() { return dispatcher; }
+
+    int connectionCount() { return connections.get(); }
+
+    /** Completions not yet drained; O(n), for the metrics scrape only. */
+    int completionBacklog() { return completions.size(); }
+
+    /** Accept on this loop too (classic single-selector mode). Call before the loop starts. */
+    void listen(ServerSocketChannel server) throws IOException {
+        this.server = server;
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** Thread-safe: hand an accepted channel to this loop. Registration happens on the loop thread. */
+    void register(SocketChannel ch) {
+        connections.incrementAndGet();
+        pending.add(ch);
+        wakeup();
+    }
+
+    /**
+     * Thread-safe: deliver the response for one of {@code conn}'s pipeline slots. From the loop thread it
+     * is applied at once; from any other thread it is queued and the selector woken, at most once per drain.
+     */
+    void complete(LoopServer.Conn conn, LoopServer.Pending slot, ByteBuffer[] response) {
+        slot.readyAt = System.nanoTime();
+        if (Thread.currentThread() == thread) {
+            apply(conn, slot, response);
+            return;
+        }
+        Trace.enqueued(conn.traceId, slot.traceId, "completions");
+        completions.add(new Completion(conn, slot, response));
+        wakeup();
+    }
+
+    /**
+     * Thread-safe: run {@code task} on this loop after {@code delayMs}. Off-loop callers hand the timer
+     * over through a queue, and the time it spends there counts against the delay.
+     */
+    void schedule(long delayMs, Runnable task) {
+        if (Thread.currentThread() == thread) {
+            wheel.schedule(delayMs, task);
+            return;
+        }
+        long at = System.nanoTime();
+        tasks.add(() -> wheel.schedule(delayMs - (System.nanoTime() - at) / 1_000_000, task));
+        wakeup();
+    }
+
+    /** Thread-safe: run {@code task} on this loop, at once if called from it. */
+    void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        wakeup();
+    }
+
+    /** Loop time in milliseconds, advanced once per select; loop thread only. */
+    long now() { return wheel.now(); }
+
+    /** Make sure {@code conn}'s timeout check runs no later than {@code deadline}; loop thread only. */
+    void timeoutBy(LoopServer.Conn conn, long deadline) {
+        TimingWheel.Timer t = conn.timeout;
+        if (!t.armed || t.deadline > deadline) wheel.arm(t, deadline - wheel.now());
+    }
+
+    private void wakeup() {
+        // A burst of producers between two drains costs a single wakeup() syscall.
+        if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+            LoopServer.WAKEUPS.increment();
+        }
+    }
+
+    @Override public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long next = wheel.untilNext();
+                if (!toFlush.isEmpty()) selector.selectNow(); // writes carried over: don't sleep on them
+                else selector.select(next < 0 ? 1000 : Math.min(next, 1000));
+                LoopServer.SELECTS.increment();
+                // Clear before draining so a producer racing with the drain still wakes the next select.
+                wakeupPending.set(false);
+                registerPending();
+                Runnable task;
+                while ((task = tasks.poll()) != null) task.run();
+                drainCompletions();
+                if (readsPaused && !cpuPool.saturated()) resumeReads();
+                wheel.advance(System.nanoTime());
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next(); it.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(key);
+                            continue;
+                        }
+                        LoopServer.Conn conn = (LoopServer.Conn) key.attachment();
+                        if (key.isReadable()) readAll(conn);
+                        flush(conn); // writes at once what the reads produced, or what OP_WRITE was waiting for
+                    } catch (CancelledKeyException | IOException ex) {
+                        close(key);
+                    }
+                }
+                flushQueued();
+            }
+        } catch (IOException e) {
+            System.err.println("[" + name + "] selector failed: " + e.getMessage());
+        } finally {
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel ch;
+        while ((ch = pending.poll()) != null) adopt(ch);
+    }
+
+    /**
+     * Accept one connection. A failed accept leaves the listener open and registered: it is usually the
+     * process out of descriptors (EMFILE), which a retry at once would only hit again, so accepting pauses
+     * for {@link Listeners#ACCEPT_BACKOFF_MS} while connections are served and closed.
+     */
+    private void accept(SelectionKey key) {
+        SocketChannel ch;
+        try {
+            ch = server.accept();
+        } catch (IOException e) {
+            Listeners.acceptFailed(name, e);
+            key.interestOps(0);
+            wheel.schedule(Listeners.ACCEPT_BACKOFF_MS, () -> { if (key.isValid()) key.interestOps(SelectionKey.OP_ACCEPT); });
+            return;
+        }
+        if (ch == null) return;
+        connections.incrementAndGet();
+        LoopServer.ACCEPTED.increment();
+        adopt(ch);
+    }
+
+    /** Attach a channel already counted in {@link #connections}, or close it if that fails. */
+    private void adopt(SocketChannel ch) {
+        try {
+            attach(ch);
+        } catch (IOException e) {
+            connections.decrementAndGet();
+            try { ch.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void drainCompletions() {
+        Completion c;
+        while ((c = completions.poll()) != null) {
+            Trace.dequeued(c.conn().traceId, c.slot().traceId, "completions");
+            apply(c.conn(), c.slot(), c.response());
+        }
+    }
+
+    private void apply(LoopServer.Conn conn, LoopServer.Pending slot, ByteBuffer[] response) {
+        slot.bufs = response;
+        if (!conn.key.isValid()) { slot.release(); return; } // closed while the worker was busy
+        slot.appliedAt = System.nanoTime();
+        queueFlush(conn);
+    }
+
+    /** Write {@code conn} at the end of this iteration, together with whatever else becomes ready before then. */
+    private void queueFlush(LoopServer.Conn conn) {
+        if (conn.flushQueued) return;
+        conn.flushQueued = true;
+        toFlush.add(conn);
+    }
+
+    /**
+     * Flush the connections queued this iteration that have not been written since. Connections queued again
+     * while flushing (a stream with more ready) wait for the next iteration, which then does not block.
+     */
+    private void flushQueued() {
+        int n = toFlush.size();
+        for (int i = 0; i < n; i++) {
+            LoopServer.Conn conn = toFlush.get(i);
+            if (!conn.flushQueued || !conn.key.isValid()) continue;
+            try {
+                flush(conn);
+            } catch (CancelledKeyException | IOException ex) {
+                close(conn.key);
+            }
+        }
+        toFlush.subList(0, n).clear();
+    }
+
+    /**
+     * Read and dispatch until the socket is drained or no more requests can be taken. A read that leaves
+     * room in the buffer has emptied the socket, so the read that would only report EAGAIN is skipped;
+     * one that fills it may have left more behind and is followed by another.
+     */
+    private void readAll(LoopServer.Conn conn) throws IOException {
+        for (int reads = 0; reads < READ_BURST; reads++) {
+            int n = LoopServer.read(conn);
+            if (n < 0) {
+                conn.closing = true; // half-close: still answer what was already received
+                return;
+            }
+            boolean full = !conn.readBuf.hasRemaining();
+            LoopServer.processRequests(conn, cpuPool);
+            if (!full || !acceptsRequests(conn)) return;
+        }
+    }
+
+    private boolean acceptsRequests(LoopServer.Conn conn) {
+        return !conn.closing && conn.pipeline.size() < LoopServer.MAX_PIPELINE && !cpuPool.saturated();
+    }
+
+    /**
+     * Write every finished response at the head of the pipeline with one gathering write, up to and
+     * including the head of the first response with a file or streamed body; that body follows by
+     * transferTo, or piece by piece, once the response reaches the front, and whatever is behind it
+     * waits for the next flush. Called right after reading and for each connection queued this iteration,
+     * not only on OP_WRITE.
+     */
+    private void flush(LoopServer.Conn conn) throws IOException {
+        conn.flushQueued = false;
+        int n = 0;
+        for (LoopServer.Pending p : conn.pipeline) {
+            if (p.bufs == null) break;
+            if (n + p.bufs.length > gather.length) gather = Arrays.copyOf(gather, Math.max(n + p.bufs.length, gather.length * 2));
+            for (ByteBuffer b : p.bufs) if (b.hasRemaining()) gather[n++] = b;
+            if (p.file != null || p.stream != null) break;
+        }
+        if (n > 0) {
+            LoopServer.WRITES.increment();
+            if (conn.ch.write(gather, 0, n) > 0) conn.lastActive = wheel.now();
+        }
+        Arrays.fill(gather, 0, n, null);
+        LoopServer.Pending head;
+        long now = System.nanoTime();
+        while ((head = conn.pipeline.peekFirst()) != null && head.bufs != null) {
+            if (head.file != null && head.headWritten() && head.filePos < head.fileEnd) {
+                long sent = head.file.transferTo(head.filePos, head.fileEnd - head.filePos, conn.ch);
+                LoopServer.WRITES.increment();
+                if (sent > 0) {
+                    head.filePos += sent;
+                    conn.lastActive = wheel.now();
+                } else if (head.filePos >= head.file.size()) {
+                    throw new IOException("File shrank while sending"); // would never finish otherwise
+                }
+            }
+            if (head.stream != null) pump(conn, head);
+            if (!head.written()) break;
+            conn.pipeline.pollFirst();
+            head.recordStages(now);
+            Trace.written(head.traceId);
+            head.release();
+            if (head.close) { close(conn.key); return; }
+        }
+        // Slots were freed: requests already sitting in the read buffer may now be dispatched.
+        LoopServer.processRequests(conn, cpuPool);
+        updateInterest(conn);
+    }
+
+    /**
+     * Send what {@code head}'s stream has ready: ask for a piece only once the previous one is written, and
+     * stop when the socket is full, the stream has nothing ready (its completion comes back through
+     * {@link #execute} and re-enables OP_WRITE) or a burst of pieces has gone out, to let other connections in.
+     */
+    private void pump(LoopServer.Conn conn, LoopServer.Pending head) throws IOException {
+        for (int pieces = 0; pieces < STREAM_BURST && !head.streamDone && !head.awaiting && head.headWritten(); pieces++) {
+            head.awaiting = true;
+            head.stream.next().whenComplete((piece, err) -> execute(() -> pieceReady(conn, head, piece, err)));
+            if (head.awaiting) return;
+            LoopServer.WRITES.increment();
+            if (conn.ch.write(head.bufs) > 0) conn.lastActive = wheel.now();
+        }
+    }
+
+    private void pieceReady(LoopServer.Conn conn, LoopServer.Pending slot, ByteBuffer piece, Throwable err) {
+        slot.awaiting = false;
+        if (!conn.key.isValid()) return; // closed meanwhile; the slot was released with the connection
+        if (err != null) { close(conn.key); return; } // the head is out: all we can do is cut the body short
+        slot.nextChunk(piece);
+        queueFlush(conn);
+    }
+
+    /** The offload pool has room again: dispatch what is buffered and read from every connection again. */
+    private void resumeReads() {
+        readsPaused = false;
+        for (SelectionKey key : selector.keys()) {
+            if (!(key.attachment() instanceof LoopServer.Conn conn) || !key.isValid()) continue;
+            try {
+                LoopServer.processRequests(conn, cpuPool);
+                updateInterest(conn);
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Timer callback. A request waiting on its handler (or on its stream's next piece) is not the client's fault and only re-arms;
+     * a partly received request gets the read timeout from its first byte; anything else (idle
+     * keep-alive, or a client not reading its responses) gets the idle timeout from the last byte moved.
+     */
+    private void checkTimeout(LoopServer.Conn conn) {
+        if (!conn.key.isValid()) return;
+        long now = wheel.now(), deadline;
+        LoopServer.Pending head = conn.pipeline.peekFirst();
+        if (head != null && (head.bufs == null || head.awaiting)) deadline = now + LoopServer.IDLE_TIMEOUT_MS;
+        else if (head == null && conn.readBuf != null) deadline = conn.requestStartedAt + LoopServer.READ_TIMEOUT_MS;
+        else deadline = conn.lastActive + LoopServer.IDLE_TIMEOUT_MS;
+        if (deadline > now) {
+            wheel.arm(conn.timeout, deadline - now);
+            return;
+        }
+        LoopServer.TIMED_OUT.increment();
+        close(conn.key);
+    }
+
+    /**
+     * Read while the pipeline has room and the connection is open for requests. Ready responses are
+     * written directly, so write interest is only for a head response a write has left unfinished (the
+     * socket was full). Interest changes are syscalls, and a keep-alive connection that keeps up never
+     * makes one. Closes a finished closing connection.
+     */
+    private void updateInterest(LoopServer.Conn conn) {
+        SelectionKey key = conn.key;
+        if (conn.closing && conn.pipeline.isEmpty()) { close(key); return; }
+        int ops = 0;
+        if (!conn.closing && conn.pipeline.size() < LoopServer.MAX_PIPELINE) {
+            if (!cpuPool.saturated()) ops |= SelectionKey.OP_READ;
+            else readsPaused = true;
+        }
+        LoopServer.Pending head = conn.pipeline.peekFirst();
+        if (head != null && head.bufs != null && !head.awaiting && !conn.flushQueued) ops |= SelectionKey.OP_WRITE;
+        if (ops != key.interestOps()) {
+            key.interestOps(ops);
+            LoopServer.INTEREST_UPDATES.increment();
+        }
+    }
+
+    private void attach(SocketChannel ch) throws IOException {
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        LoopServer.Conn conn = new LoopServer.Conn(ch, this);
+        conn.traceId = Trace.nextId();
+        Trace.accepted(conn.traceId);
+        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+        conn.lastActive = wheel.now();
+        conn.timeout = new TimingWheel.Timer(() -> checkTimeout(conn));
+        wheel.arm(conn.timeout, LoopServer.IDLE_TIMEOUT_MS);
+    }
+
+    private void close(SelectionKey key) {
+        if (key.attachment() instanceof LoopServer.Conn conn && key.channel().isOpen()) {
+            connections.decrementAndGet();
+            conn.releaseBuffers();
+            if (conn.timeout != null) wheel.cancel(conn.timeout);
+        }
+        LoopServer.closeQuiet(key);
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.loop;
+
+import com.example.common.Request;
+import com.example.common.Router;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Resumable HTTP/1.x request-head parser that works in place on a connection's read buffer.
+ * It only records offsets (method, path, query, headers); nothing is copied and no {@code String}
+ * is created unless a handler asks for one through {@link #path()}, {@link #query(String)} or
+ * {@link #header(String)}. Offsets stay valid until the next {@link #begin} or until the buffer is compacted.
+ */
+final class HttpParser implements Request {
+    private static final int REQUEST_LINE = 0, HEADERS = 1, DONE = 2;
+
+    private ByteBuffer buf;
+    private int state = REQUEST_LINE;
+    private int start;         // first byte of this request
+    private int scan;          // where the next parse() call resumes
+    private int methodEnd;
+    private int pathStart, pathEnd;
+    private int queryStart, queryEnd; // queryStart == queryEnd when absent
+    private int versionStart, versionEnd; // empty for a line without a version
+    private int headersStart, headersEnd; // headersEnd points past the final CRLFCRLF
+
+    /** Start parsing a new request whose first byte is at absolute index {@code start} of {@code buf}. */
+    void begin(ByteBuffer buf, int start) {
+        this.buf = buf;
+        this.start = start;
+        this.scan = start;
+        this.state = REQUEST_LINE;
+    }
+
+    boolean done() { return state == DONE; }
+
+    /** This request's head copied out of the read buffer, for a handler that runs after the buffer has moved on. */
+    HttpParser detach() {
+        int d = start, len = headersEnd - start;
+        HttpParser p = new HttpParser();
+        p.buf = ByteBuffer.allocate(len).put(0, buf, start, len);
+        p.state = DONE;
+        p.scan = scan - d;
+        p.methodEnd = methodEnd - d;
+        p.pathStart = pathStart - d;
+        p.pathEnd = pathEnd - d;
+        p.queryStart = queryStart - d;
+        p.queryEnd = queryEnd - d;
+        p.versionStart = versionStart - d;
+        p.versionEnd = versionEnd - d;
+        p.headersStart = headersStart - d;
+        p.headersEnd = len;
+        return p;
+    }
+
+    /** Absolute index of the first byte of this request. */
+    int start() { return start; }
+
+    /** Absolute index just past the request head. */
+    int headEnd() { return headersEnd; }
+
+    /**
+     * Scan bytes up to (exclusive) absolute index {@code end}. Returns true once the full head has been
+     * seen; call again with a larger {@code end} after more bytes arrive.
+     */
+    boolean parse(int end) throws IOException {
+        ByteBuffer b = buf;
+        int i = scan;
+        if (state == REQUEST_LINE) {
+            for (; i + 1 < end; i++) {
+                if (b.get(i) == '\r' && b.get(i + 1) == '\n') {
+                    requestLine(i);
+                    i += 2;
+                    headersStart = i;
+                    state = HEADERS;
+                    break;
+                }
+            }
+        }
+        if (state == HEADERS) {
+            // Empty header block: the request line's CRLF is immediately followed by CRLF.
+            if (i == headersStart && i + 1 < end && b.get(i) == '\r' && b.get(i + 1) == '\n') {
+                headersEnd = i + 2;
+                state = DONE;
+                return true;
+            }
+            for (; i + 3 < end; i++) {
+                if (b.get(i + 3) != '\n') continue; // most bytes fail here: skip ahead cheaply
+                if (b.get(i) == '\r' && b.get(i + 1) == '\n' && b.get(i + 2) == '\r') {
+                    headersEnd = i + 4;
+                    state = DONE;
+                    return true;
+                }
+            }
+        }
+        // Resume just before the bytes that could still begin a terminator.
+        scan = Math.max(state == HEADERS ? headersStart : start, Math.min(i, end - 3));
+        return false;
+    }
+
+    private void requestLine(int eol) throws IOException {
+        ByteBuffer b = buf;
+        int sp1 = indexOf(b, (byte) ' ', start, eol);
+        if (sp1 < 0) throw new IOException("Malformed request line");
+        int sp2 = indexOf(b, (byte) ' ', sp1 + 1, eol);
+        if (sp2 < 0) sp2 = eol; // HTTP/0.9-style line without version
+        methodEnd = sp1;
+        versionStart = Math.min(sp2 + 1, eol);
+        versionEnd = eol;
+        pathStart = sp1 + 1;
+        int qi = indexOf(b, (byte) '?', pathStart, sp2);
+        if (qi >= 0) { pathEnd = qi; queryStart = qi + 1; queryEnd = sp2; }
+        else { pathEnd = sp2; queryStart = queryEnd = sp2; }
+    }
+
+    // ---- Accessors used by handlers ----
+
+    /** Route on the raw path bytes, without building a {@code String}. */
+    Router.Endpoint route(Router router) { return router.lookup(buf, pathStart, pathEnd); }
+
+    @Override public String method() { return ascii(start, methodEnd); }
+
+    @Override public String path() { return ascii(pathStart, pathEnd); }
+
+    @Override public String queryString() { return ascii(queryStart, queryEnd); }
+
+    /** Integer query parameter parsed straight from the buffer; falls back to decoding only for escaped values. */
+    @Override public int queryInt(String name, int def) {
+        int v = findParam(name);
+        if (v < 0) return def;
+        int end = valueEnd(v);
+        boolean neg = v < end && buf.get(v) == '-';
+        int digits = neg ? v + 1 : v;
+        if (digits == end || end - digits > 10) return def;
+        long n = 0;
+        for (int i = digits; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) return parseIntOr(query(name), def);
+            n = n * 10 + d;
+        }
+        if (neg) n = -n;
+        return n < Integer.MIN_VALUE || n > Integer.MAX_VALUE ? def : (int) n;
+    }
+
+    /** Decoded query parameter, or null. Allocates. */
+    @Override public String query(String name) {
+        int v = findParam(name);
+        return v < 0 ? null : decode(v, valueEnd(v));
+    }
+
+    /** Case-insensitive header lookup, trimmed value or null. Allocates only on a hit. */
+    @Override public String header(String name) {
+        int vs = findHeader(name);
+        return vs < 0 ? null : ascii(vs, headerValueEnd);
+    }
+
+    /** Case-insensitive comparison of a header value against {@code value}, without allocating. */
+    boolean headerIs(String name, String value) {
+        int vs = findHeader(name);
+        return vs >= 0 && headerValueEnd - vs == value.length() && regionMatchesIgnoreCase(vs, value);
+    }
+
+    /**
+     * Whether the connection stays open after this request's response, by the same rule as the blocking
+     * servers' {@code HttpRequest.keepAlive}: HTTP/1.1 unless {@code Connection: close}, HTTP/1.0 (or no
+     * version) only with {@code Connection: keep-alive}.
+     */
+    boolean keepAlive() {
+        int len = versionEnd - versionStart;
+        boolean http10 = len == 0 || len == 8 && regionMatches(versionStart, "HTTP/1.0");
+        return http10 ? headerIs("connection", "keep-alive") : !headerIs("connection", "close");
+    }
+
+    /**
+     * Length of the request body: 0 when there is no Content-Length, -1 when the header is malformed or
+     * repeated, or the body uses Transfer-Encoding (which this server does not accept).
+     */
+    long contentLength() {
+        if (findHeader("transfer-encoding") >= 0) return -1;
+        int vs = findHeader("content-length");
+        if (vs < 0) return 0;
+        int ve = headerValueEnd;
+        if (findHeader("content-length", nextLine(ve)) >= 0) return -1; // a second one: which is right?
+        if (vs == ve || ve - vs > 18) return -1;
+        long n = 0;
+        for (int i = vs; i < ve; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    // ---- Internals ----
+
+    private int headerValueEnd; // end of the value found by the last findHeader()
+
+    /** Absolute index of the trimmed value of header {@code name} (end in {@link #headerValueEnd}), or -1. */
+    private int findHeader(String name) { return findHeader(name, headersStart); }
+
+    /** As {@link #findHeader(String)}, looking only at the header lines from absolute index {@code from} on. */
+    private int findHeader(String name, int from) {
+        int i = from, end = headersEnd - 2;
+        while (i < end) {
+            int eol = indexOf(buf, (byte) '\r', i, end);
+            if (eol < 0) eol = end;
+            int colon = indexOf(buf, (byte) ':', i, eol);
+            if (colon - i == name.length() && regionMatchesIgnoreCase(i, name)) {
+                int vs = colon + 1, ve = eol;
+                while (vs < ve && isOws(buf.get(vs))) vs++;
+                while (ve > vs && isOws(buf.get(ve - 1))) ve--;
+                headerValueEnd = ve;
+                return vs;
+            }
+            i = eol + 2;
+        }
+        return -1;
+    }
+
+    /** Start of the header line after the one ending at or after {@code i}. */
+    private int nextLine(int i) {
+        int eol = indexOf(buf, (byte) '\r', i, headersEnd - 2);
+        return eol < 0 ? headersEnd - 2 : eol + 2;
+    }
+
+    /** Optional whitespace around a header value: space or horizontal tab. */
+    private static boolean isOws(byte b) { return b == ' ' || b == '\t'; }
+
+    /** Absolute index of the first value byte of {@code name}, or -1. Keys are matched as raw bytes. */
+    private int findParam(String name) {
+        int i = queryStart;
+        while (i < queryEnd) {
+            int amp = indexOf(buf, (byte) '&', i, queryEnd);
+            if (amp < 0) amp = queryEnd;
+            int eq = indexOf(buf, (byte) '=', i, amp);
+            int keyEnd = eq < 0 ? amp : eq;
+            if (keyEnd - i == name.length() && regionMatches(i, name)) return eq < 0 ? amp : eq + 1;
+            i = amp + 1;
+        }
+        return -1;
+    }
+
+    private int valueEnd(int v) {
+        int amp = indexOf(buf, (byte) '&', v, queryEnd);
+        return amp < 0 ? queryEnd : amp;
+    }
+
+    private boolean regionMatches(int off, String s) {
+        for (int i = 0; i < s.length(); i++) if (buf.get(off + i) != s.charAt(i)) return false;
+        return true;
+    }
+
+    private boolean regionMatchesIgnoreCase(int off, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            int c = buf.get(off + i);
+            if (c >= 'A' && c <= 'Z') c += 32;
+            int d = s.charAt(i);
+            if (d >= 'A' && d <= 'Z') d += 32;
+            if (c != d) return false;
+        }
+        return true;
+    }
+
+    private String ascii(int from, int to) {
+        byte[] out = new byte[to - from];
+        buf.get(from, out);
+        return new String(out, StandardCharsets.US_ASCII);
+    }
+
+    private String decode(int from, int to) {
+        byte[] out = new byte[to - from];
+        buf.get(from, out);
+        String s = new String(out, StandardCharsets.UTF_8);
+        try { return java.net.URLDecoder.decode(s, StandardCharsets.UTF_8); }
+        catch (Exception e) { return s; }
+    }
+
+    private static int indexOf(ByteBuffer b, byte c, int from, int to) {
+        for (int i = from; i < to; i++) if (b.get(i) == c) return i;
+        return -1;
+    }
+
+    private static int parseIntOr(String v, int def) { try { return v == null ? def : Integer.parseInt(v); } catch (Exception e) { return def; } }
+}
@@ -0,0 +1,259 @@
+package com.example.loop;
+
+import com.example.common.Env;
+import com.example.common.Handler;
+import com.example.common.Metrics;
+import com.example.common.Request;
+import com.example.common.Response;
+import com.example.common.Router;
+import com.example.common.Threads;
+import com.example.common.Trace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * {@link LoopServer} with a placement per route: a handler runs inline on its event loop, on the CPU
+ * {@link OffloadPool}, or on a blocking thread where it may sleep or do blocking IO as in the
+ * thread-per-connection servers (a virtual thread when the JVM has them, as {@code runHybrid}'s Java 21
+ * does, else a fixed pool of platform threads as in MultiServer). Reading, framing, pipelining and
+ * writing stay the loop's; arguments are LoopServer's.
+ * <p>
+ * {@code -Pserver.hybrid.policy./cpu=blocking} pins a route to {@code inline}, {@code offload} or
+ * {@code blocking}. Routes left on {@code auto} ({@code server.hybrid.policy}, the default) start inline
+ * and are watched: one call in {@value #SAMPLE_EVERY} is timed, wall clock and thread CPU, and a route
+ * whose calls hold their thread longer than {@code server.hybrid.inlineBudgetUs} on average moves off the
+ * loop, to the CPU pool when that time is mostly CPU and to a blocking thread when it is mostly waiting.
+ * A route well under budget again moves back inline. Each route moves at most once a second.
+ * <p>
+ * What is timed is how long the handler holds its thread, not how long the request takes: for an async
+ * handler, only the part before it returns its stage. Work it hands to {@link Env#offload} or
+ * {@link Env#delay} has already left the loop and is not counted, so a route like {@code /cpu} that
+ * offloads all of its work stays inline, which is where its cheap synchronous part belongs.
+ */
+public final class HybridServer {
+    private HybridServer() {}
+
+    enum Policy { INLINE, OFFLOAD, BLOCKING }
+
+    static final int SAMPLE_EVERY = 8;               // power of two
+    private static final int MIN_SAMPLES = 4;        // per placement, before it may change
+    private static final double ALPHA = 0.25;        // weight of a new sample in the averages
+    private static final long DWELL_NANOS = 1_000_000_000L;
+
+    private static final Response BUSY = LoopServer.BUSY;
+    private static final LongAdder REJECTED = Metrics.SHARED.counter("rejected", "Requests turned away with 503.");
+    private static final LongAdder MOVES = Metrics.SHARED.counter("hybrid_route_moves", "Routes moved between inline, offload and blocking.");
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) args = new String[]{"8085"};
+        LoopServer.serve("hybrid", args, new Routes(
+                System.getProperty("server.hybrid.policy", "auto"),
+                Long.getLong("server.hybrid.inlineBudgetUs", 1000) * 1000,
+                Integer.getInteger("server.hybrid.blockingThreads", 200),
+                Integer.getInteger("server.hybrid.maxBlocking", 10_000)));
+    }
+
+    /** Placement of every route, and the blocking executor. */
+    static final class Routes implements LoopServer.Dispatcher {
+        private final ConcurrentHashMap<Router.Endpoint, Route> routes = new ConcurrentHashMap<>();
+        private final String defaultPolicy;
+        private final long budgetNanos;
+        private final ExecutorService blocking;
+        private final Semaphore blockingPermits; // blocking calls queued or running; beyond that, 503
+        private final int maxBlocking;
+
+        Routes(String defaultPolicy, long budgetNanos, int blockingThreads, int maxBlocking) {
+            this.defaultPolicy = defaultPolicy;
+            this.budgetNanos = budgetNanos;
+            this.blocking = blockingExecutor(blockingThreads);
+            this.maxBlocking = maxBlocking;
+            this.blockingPermits = new Semaphore(maxBlocking);
+            Metrics.SHARED.gauge("hybrid_blocking_in_flight", "Handlers queued or running on blocking threads.",
+                    () -> this.maxBlocking - blockingPermits.availablePermits());
+        }
+
+        /** Run {@code ep}'s handler for the request just framed on {@code conn}, where its route is placed now. */
+        @Override public void dispatch(LoopServer.Conn conn, LoopServer.Pending slot, Router.Endpoint ep, OffloadPool cpuPool) {
+            Route known = routes.get(ep);
+            Route r = known != null ? known : routes.computeIfAbsent(ep, this::route);
+            switch (r.policy) {
+                case INLINE -> {
+                    if (!r.sampleNext()) {
+                        LoopServer.dispatchInline(conn, slot, ep, cpuPool);
+                        return;
+                    }
+                    long cpu = cpuTime(), start = System.nanoTime();
+                    LoopServer.dispatchInline(conn, slot, ep, cpuPool);
+                    r.record(System.nanoTime() - start, cpuSince(cpu));
+                }
+                case OFFLOAD -> {
+                    // Handlers read their parameters whenever they like off the loop: give them their own copy.
+                    Request req = conn.req.detach();
+                    long submitted = System.nanoTime();
+                    Trace.enqueued(conn.traceId, slot.traceId, "offload");
+                    try {
+                        cpuPool.execute(conn.loop.lane(), () -> {
+                            slot.poolWait += System.nanoTime() - submitted;
+                            Trace.dequeued(conn.traceId, slot.traceId, "offload");
+                            call(r, conn, slot, ep, req, new WorkerEnv(conn.loop));
+                        });
+                    } catch (RejectedExecutionException e) {
+                        Trace.dequeued(conn.traceId, slot.traceId, "offload");
+                        REJECTED.increment();
+                        LoopServer.respond(conn, slot, BUSY);
+                    }
+                }
+                case BLOCKING -> {
+                    if (!blockingPermits.tryAcquire()) {
+                        REJECTED.increment();
+                        LoopServer.respond(conn, slot, BUSY);
+                        return;
+                    }
+                    Request req = conn.req.detach();
+                    long submitted = System.nanoTime();
+                    Trace.enqueued(conn.traceId, slot.traceId, "blocking");
+                    try {
+                        blocking.execute(() -> {
+                            slot.poolWait += System.nanoTime() - submitted;
+                            Trace.dequeued(conn.traceId, slot.traceId, "blocking");
+                            try {
+                                call(r, conn, slot, ep, req, Env.BLOCKING);
+                            } finally {
+                                blockingPermits.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        blockingPermits.release();
+                        REJECTED.increment();
+                        LoopServer.respond(conn, slot, BUSY);
+                    }
+                }
+            }
+        }
+
+        private Route route(Router.Endpoint ep) {
+            String p = System.getProperty("server.hybrid.policy." + ep.name(), defaultPolicy).toUpperCase(Locale.ROOT);
+            Route r = p.equals("AUTO") ? new Route(ep.name(), Policy.INLINE, true, budgetNanos)
+                    : new Route(ep.name(), Policy.valueOf(p), false, budgetNanos);
+            System.out.println("[hybrid] " + ep.name() + ": " + p.toLowerCase(Locale.ROOT));
+            return r;
+        }
+    }
+
+    /** Call a handler off the loop; the response goes back to the connection's loop. */
+    private static void call(Route r, LoopServer.Conn conn, LoopServer.Pending slot, Router.Endpoint ep, Request req, Env env) {
+        boolean sample = r.sampleNext();
+        long cpu = sample ? cpuTime() : 0, start = sample ? System.nanoTime() : 0;
+        Trace.handlerStarted(slot.traceId);
+        try {
+            if (ep.handler() instanceof Handler.Sync h) {
+                LoopServer.respond(conn, slot, h.handle(req));
+            } else {
+                ((Handler.Async) ep.handler()).handle(req, env)
+                        .whenComplete((res, err) -> LoopServer.respond(conn, slot, err == null ? res : LoopServer.failed(err)));
+            }
+        } catch (RuntimeException e) {
+            LoopServer.respond(conn, slot, LoopServer.failed(e));
+        }
+        if (sample) r.record(System.nanoTime() - start, cpuSince(cpu));
+    }
+
+    /** One route's placement, and the averages it is decided by. */
+    static final class Route {
+        final String name;
+        final boolean adaptive;
+        final long budgetNanos;
+        volatile Policy policy;
+        private int calls;                  // racy on purpose: only spaces the samples out
+        // Guarded by this: averages over the sampled calls of the current placement.
+        private double avgNanos, cpuShare = 1;
+        private int samples;
+        private long movedAt = System.nanoTime();
+
+        Route(String name, Policy policy, boolean adaptive, long budgetNanos) {
+            this.name = name;
+            this.policy = policy;
+            this.adaptive = adaptive;
+            this.budgetNanos = budgetNanos;
+        }
+
+        boolean sampleNext() { return adaptive && (++calls & (SAMPLE_EVERY - 1)) == 0; }
+
+        /**
+         * One sampled call: {@code wallNanos} holding its thread, {@code cpuNanos} of them on CPU (negative
+         * when unknown, e.g. on a virtual thread). Moves the route when the averages say so.
+         */
+        synchronized void record(long wallNanos, long cpuNanos) {
+            avgNanos = samples == 0 ? wallNanos : avgNanos + ALPHA * (wallNanos - avgNanos);
+            if (cpuNanos >= 0 && wallNanos > 0) cpuShare += ALPHA * (Math.min(1.0, (double) cpuNanos / wallNanos) - cpuShare);
+            long now = System.nanoTime();
+            if (++samples < MIN_SAMPLES || now - movedAt < DWELL_NANOS) return;
+            Policy next = policy;
+            if (avgNanos > budgetNanos) next = cpuShare >= 0.5 ? Policy.OFFLOAD : Policy.BLOCKING;
+            else if (avgNanos < budgetNanos / 4) next = Policy.INLINE;
+            if (next == policy) return;
+            System.out.printf(Locale.ROOT, "[hybrid] %s: %s -> %s (%.0f us per call, %.0f%% CPU)%n",
+                    name, policy.name().toLowerCase(Locale.ROOT), next.name().toLowerCase(Locale.ROOT),
+                    avgNanos / 1000, cpuShare * 100);
+            MOVES.increment();
+            policy = next;
+            movedAt = now;
+            samples = 0;
+        }
+    }
+
+    /**
+     * Env of a handler already on a CPU worker: further CPU work runs right here, delays are timers on the
+     * connection's loop as for inline handlers.
+     */
+    private record WorkerEnv(EventLoop loop) implements Env {
+        @Override public CompletionStage<Void> delay(long ms) {
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            loop.schedule(ms, () -> f.complete(null));
+            return f;
+        }
+
+        @Override public <T> CompletionStage<T> offload(Supplier<T> work) {
+            try {
+                return CompletableFuture.completedFuture(work.get());
+            } catch (Throwable t) {
+                return CompletableFuture.failedFuture(t);
+            }
+        }
+    }
+
+    /** CPU time the calling thread used since {@code start} was read from {@link #cpuTime()}, or -1. */
+    private static long cpuSince(long start) {
+        return start < 0 ? -1 : cpuTime() - start;
+    }
+
+    /** CPU time of the calling thread in nanoseconds, or -1 where the JVM cannot tell (virtual threads). */
+    private static long cpuTime() {
+        try {
+            return THREADS.getCurrentThreadCpuTime();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A virtual thread per blocking call when the running JVM has them (21+; this source set compiles
+     * for 17, hence the lookup), else a fixed pool of daemon platform threads.
+     */
+    private static ExecutorService blockingExecutor(int threads) {
+        if (Boolean.parseBoolean(System.getProperty("server.hybrid.virtual", "true"))) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Java 17: fall through to platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(threads, Threads.daemon("blocking-"));
+    }
+}
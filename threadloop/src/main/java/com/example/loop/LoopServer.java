@@ -1,198 +1,465 @@
 package com.example.loop;
 
+import com.example.common.BodyStream;
+import com.example.common.BufferPool;
+import com.example.common.Chunks;
+import com.example.common.EchoPayload;
+import com.example.common.Endpoints;
+import com.example.common.Env;
+import com.example.common.Handler;
+import com.example.common.HeaderTemplate;
+import com.example.common.Listeners;
+import com.example.common.Metrics;
+import com.example.common.Response;
+import com.example.common.Router;
+import com.example.common.Trace;
+
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class LoopServer {
 
     static class Conn {
         final SocketChannel ch;
-        final ByteBuffer readBuf = ByteBuffer.allocateDirect(64 * 1024);
-        ByteBuffer writeBuf; // response when ready
-        final StringBuilder header = new StringBuilder();
-        boolean headerDone = false;
-        String path = "/";
-        Map<String, String> query = Map.of();
+        final EventLoop loop;
+        SelectionKey key; // touched only on the loop thread
+        // Leased from the pool while bytes are in flight, null when idle. Kept in write mode:
+        // [req.start(), position) holds bytes not yet handed to a handler.
+        ByteBuffer readBuf;
+        final HttpParser req = new HttpParser();
+        // One slot per dispatched request, in arrival order; responses leave strictly from the head.
+        final ArrayDeque<Pending> pipeline = new ArrayDeque<>();
+        boolean closing; // no more requests: Connection: close, bad framing or client EOF
+        // Idle and read timeouts share one re-armable timer; times are the loop's wheel milliseconds.
+        TimingWheel.Timer timeout;
+        long lastActive;       // last byte read or written
+        long requestStartedAt; // first byte of the request currently being buffered
+        boolean flushQueued;   // on the loop's list of connections to write at the end of this iteration
+        long traceId;          // 0 unless accepted while a flight recording was running
+
+        Conn(SocketChannel ch, EventLoop loop) { this.ch = ch; this.loop = loop; }
+
+        /** Give every leased buffer back; the connection is gone. */
+        void releaseBuffers() {
+            BufferPool.SHARED.release(readBuf);
+            readBuf = null;
+            for (Pending p : pipeline) if (p.bufs != null) p.release();
+            pipeline.clear();
+        }
+    }
+
+    /** Response slot of one pipelined request. */
+    static final class Pending {
+        ByteBuffer[] bufs; // null until the handler completes; bufs[0] is leased (or read-only), the rest are read-only views
+        // File body, sent with transferTo once bufs are written; [filePos, fileEnd) is still to go. Shared, not ours to close.
+        FileChannel file;
+        long filePos, fileEnd;
+        // Streamed body, pulled one piece at a time once bufs are written; bufs[0] is reused for each chunk's framing.
+        BodyStream stream;
+        boolean midChunk;   // a piece's bytes are out, its closing CRLF is not
+        boolean awaiting;   // next() was called and has not completed yet
+        boolean streamDone; // the last chunk is in bufs
+        boolean close;     // close the connection once this response is written
+        // Stage timing, nanoTime. Null route: a framing error, not counted.
+        Metrics.Route route;
+        long traceId; // 0 when not traced, see Trace
+        long dispatchedAt, readyAt, appliedAt;
+        long poolWait; // spent in the CPU pool's queue, written by the worker before it completes the slot
+
+        /** Called once the slot's last byte is written. */
+        void recordStages(long now) {
+            if (route == null) return;
+            route.record(Metrics.Stage.QUEUE, poolWait + (appliedAt - readyAt));
+            route.record(Metrics.Stage.HANDLER, readyAt - dispatchedAt - poolWait);
+            route.record(Metrics.Stage.WRITE, now - appliedAt);
+        }
+
+        boolean headWritten() { return !bufs[bufs.length - 1].hasRemaining(); }
+
+        boolean written() { return headWritten() && filePos == fileEnd && (stream == null || streamDone); }
 
-        Conn(SocketChannel ch) { this.ch = ch; }
+        /**
+         * Frame the stream's next piece behind the closing CRLF of the previous one, or the last chunk when
+         * {@code piece} is null, into bufs. Only once bufs are written, since the framing buffer is reused.
+         */
+        void nextChunk(ByteBuffer piece) {
+            if (piece != null && !piece.hasRemaining()) return;
+            ByteBuffer frame = bufs[0].clear();
+            if (midChunk) frame.put(Chunks.CRLF);
+            if (piece == null) {
+                frame.put(Chunks.LAST);
+                streamDone = true;
+                bufs = new ByteBuffer[]{frame.flip()};
+            } else {
+                Chunks.size(frame, piece.remaining());
+                midChunk = true;
+                bufs = new ByteBuffer[]{frame.flip(), piece.duplicate()};
+            }
+        }
+
+        /** Return the leased buffer and close the file or stream, if any; the slot is done with. */
+        void release() {
+            BufferPool.SHARED.release(bufs[0]);
+            if (stream != null) stream.close();
+        }
     }
 
+    /** Requests dispatched but not yet fully written, per connection; reading pauses beyond this. */
+    static final int MAX_PIPELINE = 64;
+
+    /** Reads start in a 16 KiB buffer; a request that does not fit moves to a 64 KiB one, the limit. */
+    static final int READ_BUF = 16 * 1024, MAX_REQUEST = 64 * 1024;
+
+    /** Keep-alive connections with nothing in flight close after this; a request must arrive in full within the read timeout. */
+    static final long IDLE_TIMEOUT_MS = Long.getLong("server.loop.idleTimeoutMs", 15000),
+            READ_TIMEOUT_MS = Long.getLong("server.loop.readTimeoutMs", 5000);
+
+    static final LongAdder ACCEPTED = Metrics.SHARED.counter("connections_accepted", "Connections accepted.");
+    static final LongAdder TIMED_OUT = Metrics.SHARED.counter("connections_timed_out", "Connections closed by the idle or read timeout.");
+    // System calls the loops make per request, roughly: each counter is one syscall (interest updates are
+    // one epoll_ctl each, applied at the next select). Accepts and closes are per connection and left out.
+    static final LongAdder SELECTS = Metrics.SHARED.counter("loop_selects", "Selector waits (epoll_wait) across all event loops.");
+    static final LongAdder READS = Metrics.SHARED.counter("loop_reads", "Socket reads by the event loops, including ones that found nothing.");
+    static final LongAdder WRITES = Metrics.SHARED.counter("loop_writes", "Socket writes and transferTo calls by the event loops.");
+    static final LongAdder INTEREST_UPDATES = Metrics.SHARED.counter("loop_interest_updates", "Interest set changes (epoll_ctl) by the event loops.");
+    static final LongAdder WAKEUPS = Metrics.SHARED.counter("loop_wakeups", "Selector wakeups from other threads.");
+
     public static void main(String[] args) throws Exception {
+        serve("threadloop", args, LoopServer::dispatchInline);
+    }
+
+    /**
+     * Run the loops as {@code main} describes, placing handlers with {@code dispatcher}; {@code name} labels
+     * the startup lines.
+     */
+    static void serve(String name, String[] args, Dispatcher dispatcher) throws Exception {
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 8083;
-        ExecutorService cpuPool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
-        ScheduledExecutorService timer = Executors.newScheduledThreadPool(1);
-        Selector selector = Selector.open();
-        ServerSocketChannel server = ServerSocketChannel.open();
-        server.configureBlocking(false);
-        server.bind(new InetSocketAddress(port), 1024);
-        server.register(selector, SelectionKey.OP_ACCEPT);
-        System.out.println("[threadloop] Listening on port " + port);
+        // 0 = classic mode: one selector thread accepts and serves everything
+        int loops = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        String balance = args.length > 2 ? args[2] : "rr";
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int lanes = Listeners.SHARDS > 1 ? Listeners.SHARDS : Math.max(1, loops);
+        // CPU tasks queued or running before the loops stop reading
+        int capacity = Integer.getInteger("server.loop.offloadCapacity", workers * 32);
+        OffloadPool cpuPool = new OffloadPool(workers, lanes, capacity);
+        Metrics.SHARED.gauge("offload_pending", "CPU tasks queued or running in the offload pool.", cpuPool::pending);
+        if (Listeners.SHARDS > 1) {
+            serveSharded(name, port, cpuPool, dispatcher);
+            return;
+        }
+        ServerSocketChannel server = Listeners.channel(port, 1024);
 
         try {
-            while (true) {
-                selector.select(1000);
-                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
-                while (it.hasNext()) {
-                    SelectionKey key = it.next(); it.remove();
-                    try {
-                        if (key.isAcceptable()) {
-                            SocketChannel ch = server.accept();
-                            ch.configureBlocking(false);
-                            ch.socket().setTcpNoDelay(true);
-                            Conn conn = new Conn(ch);
-                            ch.register(selector, SelectionKey.OP_READ, conn);
-                        } else if (key.isReadable()) {
-                            Conn conn = (Conn) key.attachment();
-                            if (!readAndMaybeParse(conn)) {
-                                closeQuiet(key); continue;
-                            }
-                            if (conn.headerDone && conn.writeBuf == null) {
-                                // dispatch
-                                dispatch(conn, key, cpuPool, timer);
-                            }
-                        } else if (key.isWritable()) {
-                            Conn conn = (Conn) key.attachment();
-                            if (conn.writeBuf != null) {
-                                conn.ch.write(conn.writeBuf);
-                                if (!conn.writeBuf.hasRemaining()) {
-                                    conn.writeBuf = null;
-                                    // keep-alive: switch back to read for another request
-                                    key.interestOps(SelectionKey.OP_READ);
-                                    resetConn(conn);
-                                }
-                            }
-                        }
-                    } catch (CancelledKeyException | IOException ex) {
-                        closeQuiet(key);
-                    }
+            if (loops <= 0) {
+                EventLoop loop = new EventLoop(0, cpuPool, dispatcher);
+                registerGauges(new EventLoop[]{loop});
+                loop.listen(server);
+                System.out.println("[" + name + "] Listening on port " + port);
+                loop.run();
+            } else {
+                EventLoop[] group = new EventLoop[loops];
+                for (int i = 0; i < loops; i++) {
+                    group[i] = new EventLoop(i, cpuPool, dispatcher);
+                    Thread t = new Thread(group[i], group[i].name());
+                    t.setDaemon(true);
+                    t.start();
                 }
+                registerGauges(group);
+                System.out.println("[" + name + "] Listening on port " + port + " with " + loops + " event loops (" + balance + ")");
+                accept(server, group, "least".equals(balance));
             }
         } finally {
             server.close();
-            selector.close();
             cpuPool.shutdown();
-            timer.shutdown();
-        }
-    }
-
-    private static void resetConn(Conn c) {
-        c.header.setLength(0);
-        c.headerDone = false;
-        c.path = "/";
-        c.query = Map.of();
-        c.readBuf.clear();
-    }
-
-    private static boolean readAndMaybeParse(Conn c) throws IOException {
-        int r = c.ch.read(c.readBuf);
-        if (r == -1) return false;
-        c.readBuf.flip();
-        while (c.readBuf.hasRemaining() && !c.headerDone) {
-            char ch = (char) (c.readBuf.get() & 0xFF);
-            c.header.append(ch);
-            int len = c.header.length();
-            if (len >= 4 && c.header.charAt(len - 4) == '\r' && c.header.charAt(len - 3) == '\n' &&
-                    c.header.charAt(len - 2) == '\r' && c.header.charAt(len - 1) == '\n') {
-                c.headerDone = true;
-                parseRequestLine(c);
+        }
+    }
+
+    /**
+     * Sharded mode (-Pserver.shards=K): K self-accepting loops, each on its own SO_REUSEPORT listener, so
+     * the kernel balances connections and no acceptor thread hands channels over. Replaces loops/balance.
+     */
+    private static void serveSharded(String name, int port, OffloadPool cpuPool, Dispatcher dispatcher) throws IOException {
+        EventLoop[] group = new EventLoop[Listeners.SHARDS];
+        try {
+            for (int i = 0; i < group.length; i++) {
+                group[i] = new EventLoop(i, cpuPool, dispatcher);
+                group[i].listen(Listeners.channel(port, 1024));
             }
-            if (c.header.length() > 64 * 1024) throw new IOException("Header too large");
-        }
-        c.readBuf.compact();
-        return true;
-    }
-
-    private static void parseRequestLine(Conn c) {
-        String[] lines = c.header.toString().split("\r\n");
-        if (lines.length == 0) return;
-        String[] parts = lines[0].split(" ");
-        if (parts.length < 2) return;
-        String target = parts[1];
-        int qi = target.indexOf('?');
-        c.path = qi >= 0 ? target.substring(0, qi) : target;
-        c.query = parseQuery(qi >= 0 ? target.substring(qi + 1) : "");
-    }
-
-    private static Map<String, String> parseQuery(String q) {
-        if (q.isEmpty()) return Map.of();
-        Map<String, String> m = new HashMap<>();
-        for (String kv : q.split("&")) {
-            int i = kv.indexOf('=');
-            if (i > 0) m.put(dec(kv.substring(0, i)), dec(kv.substring(i + 1)));
-            else if (!kv.isEmpty()) m.put(dec(kv), "");
-        }
-        return m;
-    }
-
-    private static String dec(String s) {
-        try { return java.net.URLDecoder.decode(s, StandardCharsets.UTF_8); }
-        catch (Exception e) { return s; }
-    }
-
-    private static void dispatch(Conn conn, SelectionKey key, ExecutorService cpuPool, ScheduledExecutorService timer) {
-        // Nonblocking: offload CPU to pool; use timer for "IO" delay
-        String p = conn.path; Map<String,String> q = conn.query;
-        if ("/echo".equals(p)) {
-            int size = parseIntOr(q.get("size"), 1024);
-            byte[] body = randomBody(size);
-            queueResponse(conn, key, 200, "OK", "text/plain", body);
-        } else if ("/cpu".equals(p)) {
-            int ms = parseIntOr(q.get("ms"), 5);
-            cpuPool.execute(() -> {
-                busySpin(ms);
-                queueResponse(conn, key, 200, "OK", "text/plain", msgBytes("cpu=" + ms + "ms"));
-            });
-        } else if ("/io-slow".equals(p)) {
-            int ms = parseIntOr(q.get("ms"), 20);
-            timer.schedule(() ->
-                    queueResponse(conn, key, 200, "OK", "text/plain", msgBytes("io=" + ms + "ms")), ms, TimeUnit.MILLISECONDS);
-        } else if ("/mixed".equals(p)) {
-            int cpu = parseIntOr(q.get("cpuMs"), 5);
-            int io = parseIntOr(q.get("ioMs"), 5);
-            cpuPool.execute(() -> {
-                busySpin(cpu);
-                timer.schedule(() ->
-                        queueResponse(conn, key, 200, "OK", "text/plain",
-                                msgBytes("mixed cpu=" + cpu + "ms io=" + io + "ms")), io, TimeUnit.MILLISECONDS);
-            });
-        } else {
-            queueResponse(conn, key, 200, "OK", "text/plain", msgBytes("ok"));
+            registerGauges(group);
+            System.out.println("[" + name + "] Listening on port " + port + " with " + group.length + " SO_REUSEPORT shards");
+            for (int i = 1; i < group.length; i++) {
+                Thread t = new Thread(group[i], group[i].name());
+                t.setDaemon(true);
+                t.start();
+            }
+            group[0].run();
+        } finally {
+            cpuPool.shutdown();
+        }
+    }
+
+    private static void registerGauges(EventLoop[] group) {
+        Metrics.SHARED.gauge("connections_active", "Open connections across all event loops.", () -> {
+            long n = 0;
+            for (EventLoop l : group) n += l.connectionCount();
+            return n;
+        });
+        Metrics.SHARED.gauge("completion_queue_depth", "Finished responses waiting for their loop to pick them up.", () -> {
+            long n = 0;
+            for (EventLoop l : group) n += l.completionBacklog();
+            return n;
+        });
+    }
+
+    /**
+     * Dedicated acceptor: blocking accept, then hand each channel to a loop (round-robin or least connections).
+     * A failed accept does not end it: it backs off for {@link Listeners#ACCEPT_BACKOFF_MS} and tries again,
+     * until the listener itself is closed.
+     */
+    private static void accept(ServerSocketChannel server, EventLoop[] group, boolean leastConnections) throws IOException {
+        server.configureBlocking(true);
+        int next = 0;
+        while (true) {
+            SocketChannel ch = null;
+            try {
+                ch = server.accept();
+                ACCEPTED.increment();
+                EventLoop target;
+                if (leastConnections) {
+                    target = group[0];
+                    for (EventLoop l : group) if (l.connectionCount() < target.connectionCount()) target = l;
+                } else {
+                    target = group[next];
+                    next = (next + 1) % group.length;
+                }
+                target.register(ch);
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                if (ch != null) try { ch.close(); } catch (IOException ignored) {}
+                Listeners.acceptFailed("acceptor", e);
+                try {
+                    Thread.sleep(Listeners.ACCEPT_BACKOFF_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Read what is available into the connection's (possibly freshly leased) buffer. Bytes read, -1 on EOF. */
+    static int read(Conn c) throws IOException {
+        if (c.readBuf == null) {
+            c.readBuf = BufferPool.SHARED.lease(READ_BUF);
+            c.req.begin(c.readBuf, 0);
+            c.requestStartedAt = c.loop.now();
+            c.loop.timeoutBy(c, c.requestStartedAt + READ_TIMEOUT_MS);
+        }
+        int n = c.ch.read(c.readBuf);
+        READS.increment();
+        if (n > 0) c.lastActive = c.loop.now();
+        return n;
+    }
+
+    /**
+     * Frame and dispatch every complete request in the read buffer, in order. A request is complete
+     * once its head and its Content-Length body are buffered. Stops at an incomplete request, a full
+     * pipeline, a saturated offload pool or a closing connection, then moves the leftover bytes to the
+     * front of the buffer, or returns the buffer to the pool when nothing is left over. Only an incomplete
+     * request that fills the whole buffer moves it to a bigger one; a buffer full of complete requests held
+     * back by the pipeline or the pool stays as it is until they can be dispatched.
+     */
+    static void processRequests(Conn c, OffloadPool cpuPool) throws IOException {
+        ByteBuffer b = c.readBuf;
+        if (b == null) return;
+        HttpParser req = c.req;
+        boolean incomplete = false; // stopped on a request not yet fully buffered, rather than held back
+        while (!c.closing && c.pipeline.size() < MAX_PIPELINE && !cpuPool.saturated()) {
+            long parseStart = System.nanoTime();
+            if (!req.done() && !req.parse(b.position())) {
+                incomplete = true;
+                break;
+            }
+            long parsed = System.nanoTime();
+            long bodyLen = req.contentLength();
+            if (bodyLen < 0) { reject(c, 400, "Bad Request"); break; }
+            if (req.headEnd() - req.start() + bodyLen > MAX_REQUEST) { reject(c, 413, "Payload Too Large"); break; }
+            int end = req.headEnd() + (int) bodyLen;
+            if (b.position() < end) { // body still arriving
+                incomplete = true;
+                break;
+            }
+            Pending p = new Pending();
+            p.close = !req.keepAlive();
+            if (p.close) c.closing = true;
+            c.pipeline.add(p);
+            p.dispatchedAt = parsed;
+            dispatch(c, p, parsed - parseStart, cpuPool);
+            req.begin(b, end);
+            c.requestStartedAt = c.loop.now(); // whatever follows is the next request
         }
+        int from = req.start();
+        if (from > 0) {
+            // Keep whatever follows the last dispatched request; a partial head is simply re-scanned.
+            b.flip().position(from);
+            b.compact();
+            req.begin(b, 0);
+        }
+        if (b.position() == 0) {
+            BufferPool.SHARED.release(b);
+            c.readBuf = null;
+        } else if (incomplete && !b.hasRemaining()) {
+            // One request fills the buffer and is still incomplete: move to a bigger one, up to the request size limit.
+            if (b.capacity() >= MAX_REQUEST) throw new IOException("Request too large");
+            ByteBuffer bigger = BufferPool.SHARED.lease(MAX_REQUEST);
+            bigger.put(b.flip());
+            BufferPool.SHARED.release(b);
+            c.readBuf = bigger;
+            req.begin(bigger, 0);
+        }
+        if (c.readBuf != null) c.loop.timeoutBy(c, c.requestStartedAt + READ_TIMEOUT_MS);
     }
 
-    private static void queueResponse(Conn conn, SelectionKey key, int code, String reason, String ctype, byte[] body) {
-        String hdr = "HTTP/1.1 " + code + " " + reason + "\r\n" +
-                "Content-Type: " + ctype + "\r\n" +
-                "Content-Length: " + body.length + "\r\n" +
-                "Connection: keep-alive\r\n\r\n";
-        byte[] h = hdr.getBytes(StandardCharsets.US_ASCII);
-        ByteBuffer buf = ByteBuffer.allocate(h.length + body.length);
-        buf.put(h).put(body).flip();
-        conn.writeBuf = buf;
-        key.interestOps(SelectionKey.OP_WRITE);
-        key.selector().wakeup();
+    private static void reject(Conn c, int code, String reason) {
+        Pending p = new Pending();
+        p.close = true;
+        c.closing = true;
+        c.pipeline.add(p);
+        queueResponse(c, p, HeaderTemplate.of(code, reason, "text/plain", false), msgBytes(reason));
+    }
+
+    private static final Router ROUTER = Endpoints.standard().build();
+
+    static final Response ERROR = Response.of(500, "Internal Server Error", "text/plain", msgBytes("error"));
+    static final Response BUSY = Response.of(503, "Service Unavailable", "text/plain", "Retry-After: 1\r\n", msgBytes("busy"));
+
+    /** Response to a handler that failed with {@code err}: 503 if the offload pool turned its work away, else 500. */
+    static Response failed(Throwable err) {
+        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        return cause instanceof RejectedExecutionException ? BUSY : ERROR;
     }
 
-    private static void busySpin(int ms) {
-        long end = System.nanoTime() + ms * 1_000_000L; long x = 0;
-        while (System.nanoTime() < end) x++;
+    /** Where the handler of a request framed on a loop runs: {@link #dispatchInline}, or per route in {@link HybridServer}. */
+    interface Dispatcher {
+        void dispatch(Conn conn, Pending slot, Router.Endpoint ep, OffloadPool cpuPool);
     }
 
-    private static byte[] randomBody(int size) {
-        byte[] b = new byte[size]; Arrays.fill(b, (byte) 'A'); return b;
+    static void dispatch(Conn conn, Pending slot, long parseNanos, OffloadPool cpuPool) {
+        Router.Endpoint ep = conn.req.route(ROUTER);
+        slot.route = ep.metrics();
+        slot.route.record(Metrics.Stage.PARSE, parseNanos);
+        slot.traceId = Trace.nextId();
+        Trace.parsed(conn.traceId, slot.traceId, ep.name(), parseNanos);
+        conn.loop.dispatcher().dispatch(conn, slot, ep, cpuPool);
+    }
+
+    /** Call {@code ep}'s handler on the loop thread: sync ones answer at once, async ones through a {@link SlotEnv}. */
+    static void dispatchInline(Conn conn, Pending slot, Router.Endpoint ep, OffloadPool cpuPool) {
+        HttpParser req = conn.req;
+        Trace.handlerStarted(slot.traceId);
+        try {
+            if (ep.handler() instanceof Handler.Sync h) {
+                respond(conn, slot, h.handle(req));
+                return;
+            }
+            // Handlers read their parameters before returning: the bytes are gone once we do.
+            ((Handler.Async) ep.handler()).handle(req, new SlotEnv(conn, slot, cpuPool))
+                    .whenComplete((res, err) -> respond(conn, slot, err == null ? res : failed(err)));
+        } catch (RuntimeException e) {
+            respond(conn, slot, failed(e));
+        }
+    }
+
+    /**
+     * Env of one async request: CPU work goes to the loop's lane of the pool, with its queue wait charged to the slot;
+     * delays are timers on the connection's own loop, so they complete on the thread that writes.
+     */
+    record SlotEnv(Conn conn, Pending slot, OffloadPool cpuPool) implements Env {
+        @Override public CompletionStage<Void> delay(long ms) {
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            Trace.enqueued(conn.traceId, slot.traceId, "timer");
+            conn.loop.schedule(ms, () -> {
+                Trace.dequeued(conn.traceId, slot.traceId, "timer");
+                f.complete(null);
+            });
+            return f;
+        }
+
+        @Override public <T> CompletionStage<T> offload(Supplier<T> work) {
+            CompletableFuture<T> f = new CompletableFuture<>();
+            long submitted = System.nanoTime();
+            Trace.enqueued(conn.traceId, slot.traceId, "offload");
+            try {
+                cpuPool.execute(conn.loop.lane(), () -> {
+                    slot.poolWait += System.nanoTime() - submitted;
+                    Trace.dequeued(conn.traceId, slot.traceId, "offload");
+                    try {
+                        f.complete(work.get());
+                    } catch (Throwable t) {
+                        f.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Trace.dequeued(conn.traceId, slot.traceId, "offload");
+                f.completeExceptionally(e); // answered 503, see failed()
+            }
+            return f;
+        }
+    }
+
+    /** Encode {@code res} for {@code slot} and hand it to the connection's loop; safe to call from any thread. */
+    static void respond(Conn conn, Pending slot, Response res) {
+        Trace.handlerEnded(slot.traceId);
+        if (!slot.close && res.encoded() != null) { // cached: the bytes go out as they are
+            conn.loop.complete(conn, slot, new ByteBuffer[]{res.encoded().duplicate()});
+            return;
+        }
+        HeaderTemplate hdr = res.header(!slot.close);
+        if (res.body() != null) {
+            queueResponse(conn, slot, hdr, res.body());
+            return;
+        }
+        FileChannel file = res.file(); // opened by the handler, off the loop; shared, so never closed here
+        // Only the header is encoded; the body is never copied: slices of the shared echo payload or of a
+        // mapped file go out in the same gathering write, a file region follows by transferTo (sendfile),
+        // and a stream's pieces follow one by one, framed in this same buffer.
+        ByteBuffer head = BufferPool.SHARED.lease(Math.max(hdr.maxLength(), Chunks.MAX_LINE + Chunks.LAST.length));
+        hdr.encode(head, res.contentLength());
+        head.flip();
+        if (res.isEcho()) {
+            conn.loop.complete(conn, slot, EchoPayload.withHeader(head, res.contentLength()));
+        } else if (file != null) {
+            slot.file = file;
+            slot.filePos = res.fileOffset();
+            slot.fileEnd = slot.filePos + res.contentLength();
+            conn.loop.complete(conn, slot, new ByteBuffer[]{head});
+        } else if (res.stream() != null) {
+            slot.stream = res.stream();
+            conn.loop.complete(conn, slot, new ByteBuffer[]{head});
+        } else {
+            conn.loop.complete(conn, slot, new ByteBuffer[]{head, res.mapped().duplicate()});
+        }
+    }
+
+    /** Encode a response into a pooled buffer and hand it to the connection's loop; safe to call from any thread. */
+    private static void queueResponse(Conn conn, Pending slot, HeaderTemplate hdr, byte[] body) {
+        ByteBuffer buf = BufferPool.SHARED.lease(hdr.maxLength() + body.length);
+        hdr.encode(buf, body.length);
+        buf.put(body).flip();
+        conn.loop.complete(conn, slot, new ByteBuffer[]{buf});
     }
 
     private static byte[] msgBytes(String s) { return s.getBytes(StandardCharsets.UTF_8); }
 
-    private static void closeQuiet(SelectionKey key) {
+    static void closeQuiet(SelectionKey key) {
         try { key.channel().close(); } catch (IOException ignored) {}
         try { key.cancel(); } catch (Exception ignored) {}
     }
-
-    private static int parseIntOr(String v, int def) { try { return v == null ? def : Integer.parseInt(v); } catch (Exception e) { return def; } }
 }
@@ -0,0 +1,156 @@
+package com.example.loop;
+
+import com.example.common.Metrics;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CPU offload for the event loops. Each loop submits into its own lane (a lock-free queue), and every
+ * worker has a home lane it drains first, so work tends to stay with the workers of the loop that
+ * produced it; a worker with nothing at home steals from the other lanes before it parks. Submitting
+ * wakes an idle worker of the same lane if there is one, else any idle worker.
+ * <p>
+ * Queues are per loop, not per worker as in a ForkJoinPool. Every task here comes from an event loop,
+ * never from a worker forking subtasks, so a worker's own deque would only ever be filled by other
+ * threads; and ForkJoinPool picks the queue of an outside submitter by thread hash, which loses the
+ * affinity to the submitting loop. A lane is a worker deque keyed by loop instead: its owners take from
+ * it first and everyone else steals from it.
+ * <p>
+ * Capacity is a hard bound: at most {@code capacity} tasks are queued or running, and {@link #execute}
+ * refuses the next one. Well before that matters, reaching capacity makes the pool report
+ * {@link #saturated()} until it drains to half, and loops stop reading and dispatching new requests
+ * meanwhile, so overload backs up into TCP instead of into this queue. What is still refused is work
+ * from requests already in flight, or from two loops dispatching at once; callers answer it with a 503.
+ */
+final class OffloadPool {
+    private static final LongAdder STEALS = Metrics.SHARED.counter("offload_steals", "CPU tasks run by a worker of another loop's lane.");
+    private static final LongAdder SATURATIONS = Metrics.SHARED.counter("offload_saturations", "Times the offload pool filled up and loops paused reading.");
+    private static final LongAdder REJECTED = Metrics.SHARED.counter("offload_rejected", "CPU tasks refused because the offload pool was at capacity.");
+
+    /** Tasks submitted by one loop, and the parked workers whose home it is. */
+    private static final class Lane {
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Worker> idle = new ConcurrentLinkedQueue<>(); // may hold stale entries, see Worker.parked
+    }
+
+    private final Lane[] lanes;
+    private final Worker[] workers;
+    private final int capacity;
+    private final AtomicInteger pending = new AtomicInteger(); // queued or running
+    private final AtomicBoolean full = new AtomicBoolean();
+    private final List<Runnable> drainListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean shutdown;
+
+    OffloadPool(int workers, int lanes, int capacity) {
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) this.lanes[i] = new Lane();
+        this.capacity = Math.max(1, capacity);
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker(i % lanes, "cpu-" + i);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Queue {@code task} on {@code lane} (the submitting loop's index); safe from any thread. Throws
+     * {@link RejectedExecutionException}, queueing nothing, when {@code capacity} tasks are already queued or running.
+     */
+    void execute(int lane, Runnable task) {
+        int n = pending.incrementAndGet();
+        if (n > capacity) {
+            pending.decrementAndGet();
+            REJECTED.increment();
+            throw new RejectedExecutionException("Offload pool full (" + capacity + " tasks)");
+        }
+        if (n == capacity && !full.get() && full.compareAndSet(false, true)) SATURATIONS.increment();
+        lanes[lane].tasks.add(task);
+        for (int i = 0; i < lanes.length; i++) if (wake((lane + i) % lanes.length)) return;
+    }
+
+    /** True from reaching capacity until drained to half of it. */
+    boolean saturated() {
+        if (!full.get()) return false;
+        if (pending.get() > capacity / 2) return true;
+        drained(); // cleared here too, so a missed signal cannot leave the loops paused
+        return false;
+    }
+
+    /** Run {@code listener}, on whichever thread notices, each time the pool stops being saturated. */
+    void onDrain(Runnable listener) { drainListeners.add(listener); }
+
+    int pending() { return pending.get(); }
+
+    void shutdown() {
+        shutdown = true;
+        for (Worker w : workers) LockSupport.unpark(w);
+    }
+
+    private boolean wake(int lane) {
+        Worker w;
+        while ((w = lanes[lane].idle.poll()) != null) {
+            if (w.parked.compareAndSet(true, false)) {
+                LockSupport.unpark(w);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drained() {
+        if (full.compareAndSet(true, false)) for (Runnable r : drainListeners) r.run();
+    }
+
+    private final class Worker extends Thread {
+        final int home;
+        // Set while announced in lanes[home].idle; whoever flips it back to false owns the wakeup.
+        final AtomicBoolean parked = new AtomicBoolean();
+
+        Worker(int home, String name) {
+            super(name);
+            this.home = home;
+            setDaemon(true);
+        }
+
+        @Override public void run() {
+            while (!shutdown) {
+                Runnable task = take();
+                if (task != null) {
+                    parked.set(false);
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        // a failing task must not take the worker with it
+                    }
+                    if (pending.decrementAndGet() <= capacity / 2 && full.get()) drained();
+                } else if (!parked.get()) {
+                    // Announce first, then look once more before sleeping, so a task queued in between is not missed.
+                    parked.set(true);
+                    lanes[home].idle.add(this);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private Runnable take() {
+            Runnable task = lanes[home].tasks.poll();
+            if (task != null) return task;
+            for (int i = 1; i < lanes.length; i++) {
+                task = lanes[(home + i) % lanes.length].tasks.poll();
+                if (task != null) {
+                    STEALS.increment();
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.loop;
+
+/**
+ * Hashed timing wheel with 1 ms ticks, owned by one {@link EventLoop} and touched only on its thread.
+ * Timers hang in intrusive doubly linked lists, one per slot, so arming and cancelling are O(1) and a
+ * re-armed {@link Timer} allocates nothing. Deadlines further out than one revolution simply stay in
+ * their slot until a later pass reaches them. Time only moves in {@link #advance(long)}, which the loop
+ * calls after every select; {@link #untilNext()} tells it how long that select may block, from a bitmap
+ * of the non-empty slots rather than by walking them.
+ */
+final class TimingWheel {
+    private static final int SLOTS = 512, MASK = SLOTS - 1, WORDS = SLOTS / 64;
+    private static final long NANOS_PER_TICK = 1_000_000L;
+
+    /** One pending callback. Re-armable once fired or cancelled. */
+    static final class Timer {
+        final Runnable task;
+        long deadline; // in ticks
+        Timer prev, next;
+        boolean armed;
+
+        Timer(Runnable task) { this.task = task; }
+    }
+
+    private final Timer[] slots = new Timer[SLOTS];
+    private final long[] occupied = new long[WORDS]; // bit s set iff slots[s] != null
+    private final long origin;
+    private long tick; // every deadline up to here has fired
+    private int size;
+    private Timer firing; // due timers taken out of their slot by advance(), not run yet
+
+    TimingWheel() { this(System.nanoTime()); }
+
+    /** A wheel whose tick 0 starts at {@code origin} on the {@link System#nanoTime()} scale. */
+    TimingWheel(long origin) { this.origin = origin; }
+
+    /** Milliseconds since the wheel started, as of the last {@link #advance(long)}. */
+    long now() { return tick; }
+
+    int size() { return size; }
+
+    /** Run {@code task} on the loop thread in about {@code delayMs}, at the next tick at the earliest. */
+    Timer schedule(long delayMs, Runnable task) {
+        Timer t = new Timer(task);
+        arm(t, delayMs);
+        return t;
+    }
+
+    /** (Re-)arm {@code t}; an already armed timer is moved to its new deadline. */
+    void arm(Timer t, long delayMs) {
+        if (t.armed) unlink(t);
+        t.deadline = tick + Math.max(1, delayMs);
+        link(t, (int) (t.deadline & MASK));
+        t.armed = true;
+        size++;
+    }
+
+    private void link(Timer t, int s) {
+        t.prev = null;
+        t.next = slots[s];
+        if (t.next != null) t.next.prev = t;
+        slots[s] = t;
+        occupied[s >>> 6] |= 1L << s;
+    }
+
+    /** True if {@code t} was armed and now will not fire. */
+    boolean cancel(Timer t) {
+        if (!t.armed) return false;
+        unlink(t);
+        return true;
+    }
+
+    private void unlink(Timer t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else if (t == firing) firing = t.next;
+        else {
+            int s = (int) (t.deadline & MASK);
+            slots[s] = t.next;
+            if (t.next == null) occupied[s >>> 6] &= ~(1L << s);
+        }
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.armed = false;
+        size--;
+    }
+
+    /**
+     * Fire everything due by {@code nowNanos}, slot by slot. A stall longer than one revolution still
+     * visits each slot only once. Each slot's list is taken out whole before any of its tasks run, so
+     * tasks may arm, re-arm or cancel any timer, including ones of this slot still waiting to fire; timers
+     * they arm land at least one tick ahead.
+     */
+    void advance(long nowNanos) {
+        long target = (nowNanos - origin) / NANOS_PER_TICK, from = tick;
+        if (target <= from) return;
+        tick = target; // before firing, so timers armed by the tasks land after target
+        long steps = Math.min(target - from, SLOTS);
+        for (long i = 1; i <= steps; i++) {
+            int s = (int) ((from + i) & MASK);
+            Timer t = slots[s], last = null;
+            if (t == null) continue;
+            slots[s] = null;
+            occupied[s >>> 6] &= ~(1L << s);
+            for (Timer next; t != null; t = next) { // due ones to the firing list, in order; the rest go back
+                next = t.next;
+                if (t.deadline > target) {
+                    link(t, s); // a later revolution
+                    continue;
+                }
+                t.prev = last;
+                t.next = null;
+                if (last == null) firing = t;
+                else last.next = t;
+                last = t;
+            }
+            while ((t = firing) != null) {
+                unlink(t);
+                t.task.run();
+            }
+        }
+    }
+
+    /** Milliseconds until the first non-empty slot comes up, or -1 when nothing is armed. */
+    long untilNext() {
+        if (size == 0) return -1;
+        int from = (int) ((tick + 1) & MASK), word = from >>> 6;
+        for (int i = 0; i <= WORDS; i++) { // the first word twice: from its bit on, then the bits before it
+            int w = (word + i) & (WORDS - 1);
+            long bits = occupied[w];
+            if (i == 0) bits &= -1L << from;
+            else if (i == WORDS) bits &= ~(-1L << from);
+            if (bits != 0) return (((w << 6 | Long.numberOfTrailingZeros(bits)) - from) & MASK) + 1;
+        }
+        return SLOTS;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.loop;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpParserTest {
+    private static final String HEAD = "GET /echo?size=64&x=%31%32 HTTP/1.1\r\nHost: example\r\nX-Pad: \t a b \t\r\n\r\n";
+
+    private static byte[] ascii(String s) { return s.getBytes(StandardCharsets.US_ASCII); }
+
+    /** Parser over {@code wire}, which must hold a whole head. */
+    private static HttpParser parse(String wire) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(wire.length()).put(ascii(wire));
+        HttpParser p = new HttpParser();
+        p.begin(buf, 0);
+        assertTrue(p.parse(buf.position()), "head not complete");
+        return p;
+    }
+
+    private static HttpParser request(String query, String headers) throws IOException {
+        return parse("GET /q" + (query == null ? "" : "?" + query) + " HTTP/1.1\r\n" + headers + "\r\n");
+    }
+
+    /** Feed {@code head} in pieces ending at each of {@code cuts}, then the rest; only the last piece may finish it. */
+    private static HttpParser feed(String head, int... cuts) throws IOException {
+        byte[] bytes = ascii(head);
+        ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+        HttpParser p = new HttpParser();
+        p.begin(buf, 0);
+        int from = 0;
+        for (int cut : cuts) {
+            buf.put(bytes, from, cut - from);
+            from = cut;
+            assertFalse(p.parse(cut), () -> "finished early at " + cut);
+        }
+        buf.put(bytes, from, bytes.length - from);
+        assertTrue(p.parse(bytes.length));
+        return p;
+    }
+
+    @Test void resumesAcrossEverySplit() throws IOException {
+        for (int i = 0; i < HEAD.length(); i++) {
+            for (int j = i; j < HEAD.length(); j++) {
+                HttpParser p = feed(HEAD, i, j);
+                assertEquals(HEAD.length(), p.headEnd());
+                assertEquals("/echo", p.path());
+                assertEquals("example", p.header("host"));
+            }
+        }
+    }
+
+    @Test void emptyHeaderBlockAcrossEverySplit() throws IOException {
+        String head = "GET /x HTTP/1.1\r\n\r\n";
+        for (int i = 0; i < head.length(); i++) {
+            HttpParser p = feed(head, i);
+            assertEquals(head.length(), p.headEnd());
+            assertEquals("/x", p.path());
+            assertNull(p.header("host"));
+            assertEquals(0, p.contentLength());
+        }
+    }
+
+    @Test void stopsAtTheEndOfTheFirstHead() throws IOException {
+        String next = "GET /next HTTP/1.1\r\n\r\n";
+        ByteBuffer buf = ByteBuffer.allocate(256).put(ascii(HEAD + next));
+        HttpParser p = new HttpParser();
+        p.begin(buf, 0);
+        assertTrue(p.parse(buf.position()));
+        assertEquals(HEAD.length(), p.headEnd());
+        p.begin(buf, p.headEnd());
+        assertTrue(p.parse(buf.position()));
+        assertEquals("/next", p.path());
+        assertEquals(HEAD.length() + next.length(), p.headEnd());
+    }
+
+    @Test void malformedRequestLine() {
+        assertThrows(IOException.class, () -> parse("GARBAGE\r\n\r\n"));
+        assertThrows(IOException.class, () -> parse("\r\n\r\n"));
+    }
+
+    @Test void requestLineParts() throws IOException {
+        HttpParser p = parse(HEAD);
+        assertEquals("GET", p.method());
+        assertEquals("/echo", p.path());
+        assertEquals("size=64&x=%31%32", p.queryString());
+        assertEquals("12", p.query("x"));
+        HttpParser noVersion = parse("GET /old\r\n\r\n");
+        assertEquals("/old", noVersion.path());
+        assertEquals("", noVersion.queryString());
+    }
+
+    @Test void headerValuesTrimSpacesAndTabs() throws IOException {
+        HttpParser p = parse(HEAD);
+        assertEquals("a b", p.header("X-PAD"));
+        assertTrue(request(null, "Connection:\tclose \r\n").headerIs("connection", "CLOSE"));
+    }
+
+    @Test void contentLength() throws IOException {
+        assertEquals(0, request(null, "").contentLength());
+        assertEquals(12, request(null, "Content-Length: 12\r\n").contentLength());
+        assertEquals(5, request(null, "content-length:\t5\t\r\n").contentLength());
+        assertEquals(-1, request(null, "Content-Length: abc\r\n").contentLength());
+        assertEquals(-1, request(null, "Content-Length: -1\r\n").contentLength());
+        assertEquals(-1, request(null, "Content-Length: \r\n").contentLength());
+        assertEquals(-1, request(null, "Content-Length: 1234567890123456789\r\n").contentLength());
+        assertEquals(-1, request(null, "Transfer-Encoding: chunked\r\n").contentLength());
+        assertEquals(-1, request(null, "Transfer-Encoding: chunked\r\nContent-Length: 3\r\n").contentLength());
+    }
+
+    @Test void duplicateContentLengthIsRejected() throws IOException {
+        assertEquals(-1, request(null, "Content-Length: 3\r\nContent-Length: 3\r\n").contentLength());
+        assertEquals(-1, request(null, "Content-Length: 3\r\nHost: x\r\ncontent-length: 4\r\n").contentLength());
+    }
+
+    @Test void queryInt() throws IOException {
+        assertEquals(7, request(null, "").queryInt("n", 7));
+        assertEquals(42, request("n=42", "").queryInt("n", 7));
+        assertEquals(-5, request("a=1&n=-5", "").queryInt("n", 7));
+        assertEquals(7, request("n=-", "").queryInt("n", 7));
+        assertEquals(7, request("n=", "").queryInt("n", 7));
+        assertEquals(7, request("n", "").queryInt("n", 7));
+        assertEquals(7, request("n=12a", "").queryInt("n", 7));
+        assertEquals(7, request("n=--1", "").queryInt("n", 7));
+        assertEquals(12, request("n=%31%32", "").queryInt("n", 7));
+        assertEquals(Integer.MAX_VALUE, request("n=2147483647", "").queryInt("n", 7));
+        assertEquals(7, request("n=2147483648", "").queryInt("n", 7));
+        assertEquals(Integer.MIN_VALUE, request("n=-2147483648", "").queryInt("n", 7));
+        assertEquals(7, request("nn=1", "").queryInt("n", 7));
+    }
+
+    @Test void keepAlive() throws IOException {
+        assertTrue(parse("GET / HTTP/1.1\r\n\r\n").keepAlive());
+        assertFalse(parse("GET / HTTP/1.1\r\nConnection: close\r\n\r\n").keepAlive());
+        assertFalse(parse("GET / HTTP/1.0\r\n\r\n").keepAlive());
+        assertTrue(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").keepAlive());
+        assertFalse(parse("GET /\r\n\r\n").keepAlive());
+    }
+
+    @Test void detachedCopySurvivesTheBuffer() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(256).put(ascii("junk" + HEAD));
+        HttpParser p = new HttpParser();
+        p.begin(buf, 4);
+        assertTrue(p.parse(buf.position()));
+        HttpParser copy = p.detach();
+        buf.clear().put(new byte[256]);
+        assertEquals("/echo", copy.path());
+        assertEquals(64, copy.queryInt("size", 0));
+        assertEquals("example", copy.header("host"));
+        assertTrue(copy.keepAlive());
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.loop;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffloadPoolTest {
+
+    @Test void refusesWorkBeyondCapacityAndTakesItAgainOnceDrained() throws Exception {
+        OffloadPool pool = new OffloadPool(1, 2, 4);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                pool.execute(i % 2, () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(pool.saturated());
+            assertThrows(RejectedExecutionException.class, () -> pool.execute(0, () -> {}));
+            assertEquals(4, pool.pending());
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            CountDownLatch after = new CountDownLatch(1);
+            pool.execute(1, after::countDown);
+            assertTrue(after.await(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
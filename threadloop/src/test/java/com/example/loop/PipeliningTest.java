@@ -0,0 +1,232 @@
+package com.example.loop;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Framing and ordering on a live {@link EventLoop}: pipelined requests, split at arbitrary boundaries,
+ * answered in the order they were sent whatever order their handlers finish in.
+ */
+class PipeliningTest {
+    private OffloadPool pool;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private int port;
+
+    @BeforeEach void start() throws IOException {
+        pool = new OffloadPool(2, 1, 64);
+        EventLoop loop = new EventLoop(0, pool, LoopServer::dispatchInline);
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        loop.listen(server);
+        thread = new Thread(loop, "test-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterEach void stop() throws Exception {
+        thread.interrupt();
+        thread.join(5000);
+        server.close();
+        pool.shutdown();
+    }
+
+    /** One request on the wire and the body its response must carry. */
+    private record Exchange(byte[] request, String body) {}
+
+    /**
+     * GETs and POSTs of /echo (distinct sizes, so each response is recognisable), /io-slow (finishing out
+     * of order) and /cpu (on the offload pool). POST bodies hold bytes that look like a request head.
+     */
+    private static List<Exchange> mix(Random rnd, int n) {
+        List<Exchange> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int size = i + 1;
+            switch (rnd.nextInt(4)) {
+                case 0 -> out.add(new Exchange(ascii("GET /echo?size=" + size + " HTTP/1.1\r\nHost: t\r\n\r\n"), "A".repeat(size)));
+                case 1 -> {
+                    String body = "GET /io-slow?ms=1 HTTP/1.1\r\n\r\n" + "x".repeat(rnd.nextInt(50));
+                    out.add(new Exchange(ascii("POST /echo?size=" + size + " HTTP/1.1\r\nContent-Length: " + body.length()
+                            + "\r\n\r\n" + body), "A".repeat(size)));
+                }
+                case 2 -> {
+                    int ms = 1 + rnd.nextInt(15);
+                    out.add(new Exchange(ascii("GET /io-slow?ms=" + ms + " HTTP/1.1\r\n\r\n"), "io=" + ms + "ms"));
+                }
+                default -> out.add(new Exchange(ascii("GET /cpu?ms=1&i=" + i + " HTTP/1.1\r\n\r\n"), "cpu=1ms"));
+            }
+        }
+        return out;
+    }
+
+    @Test void pipelinedRequestsSplitAnywhereAreAnsweredInOrder() throws Exception {
+        for (long seed = 1; seed <= 5; seed++) {
+            Random rnd = new Random(seed);
+            List<Exchange> mix = mix(rnd, 100); // past MAX_PIPELINE, so reading pauses and resumes too
+            try (Socket s = connect()) {
+                sendSplit(s.getOutputStream(), concat(mix), rnd);
+                InputStream in = s.getInputStream();
+                for (int i = 0; i < mix.size(); i++) {
+                    assertEquals(mix.get(i).body(), readResponse(in, 200), "seed " + seed + ", response " + i);
+                }
+            }
+        }
+    }
+
+    @Test void halfClosedClientStillGetsEveryAnswer() throws Exception {
+        List<Exchange> mix = mix(new Random(42), 20);
+        try (Socket s = connect()) {
+            s.getOutputStream().write(concat(mix));
+            s.shutdownOutput();
+            InputStream in = s.getInputStream();
+            for (Exchange e : mix) assertEquals(e.body(), readResponse(in, 200));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test void connectionCloseEndsThePipelineAfterItsResponse() throws Exception {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(ascii("GET /io-slow?ms=10 HTTP/1.1\r\n\r\n"
+                    + "GET /echo?size=3 HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    + "GET /echo?size=5 HTTP/1.1\r\n\r\n"));
+            InputStream in = s.getInputStream();
+            assertEquals("io=10ms", readResponse(in, 200));
+            assertEquals("AAA", readResponse(in, 200));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test void unframeableBodyIsAnswered400AfterEarlierRequests() throws Exception {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(ascii("GET /echo?size=2 HTTP/1.1\r\n\r\n"
+                    + "POST /echo HTTP/1.1\r\nContent-Length: abc\r\n\r\n"));
+            InputStream in = s.getInputStream();
+            assertEquals("AA", readResponse(in, 200));
+            assertEquals("Bad Request", readResponse(in, 400));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test void fullBufferHeldBackBySaturatedPoolIsNeitherGrownNorRejected() throws Exception {
+        OffloadPool busy = new OffloadPool(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            busy.execute(0, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(busy.saturated());
+            EventLoop idle = new EventLoop(0, busy, LoopServer::dispatchInline); // never run: called directly
+            byte[] requests = ascii("GET /echo?size=1 HTTP/1.1\r\n\r\n".repeat(LoopServer.MAX_REQUEST / 16));
+            for (int capacity : new int[]{LoopServer.READ_BUF, LoopServer.MAX_REQUEST}) {
+                LoopServer.Conn c = new LoopServer.Conn(null, idle);
+                c.timeout = new TimingWheel.Timer(() -> {});
+                ByteBuffer full = ByteBuffer.allocate(capacity).put(requests, 0, capacity);
+                c.readBuf = full;
+                c.req.begin(full, 0);
+                LoopServer.processRequests(c, busy); // used to grow, or throw "Request too large" at 64 KiB
+                assertSame(full, c.readBuf, "capacity " + capacity);
+                assertEquals(capacity, full.position());
+                assertTrue(c.pipeline.isEmpty());
+                assertFalse(c.closing);
+            }
+        } finally {
+            release.countDown();
+            busy.shutdown();
+        }
+    }
+
+    @Test void requestsReadWhileThePoolIsSaturatedAreServedOnceItDrains() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 64; i++) { // the fixture pool's capacity
+            pool.execute(0, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(pool.saturated());
+        int n = 3 * LoopServer.READ_BUF / 32; // well past one full read buffer
+        try (Socket s = connect()) {
+            s.getOutputStream().write(ascii("GET /echo?size=2 HTTP/1.1\r\n\r\n".repeat(n)));
+            Thread.sleep(100); // read into a full buffer while nothing can be dispatched
+            release.countDown();
+            InputStream in = s.getInputStream();
+            for (int i = 0; i < n; i++) assertEquals("AA", readResponse(in, 200), "response " + i);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket("127.0.0.1", port);
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(10_000);
+        return s;
+    }
+
+    /** Write {@code bytes} in random pieces, pausing now and then so the server sees them as separate reads. */
+    private static void sendSplit(OutputStream out, byte[] bytes, Random rnd) throws Exception {
+        for (int off = 0; off < bytes.length; ) {
+            int n = Math.min(bytes.length - off, 1 + rnd.nextInt(48));
+            out.write(bytes, off, n);
+            out.flush();
+            off += n;
+            if (rnd.nextInt(4) == 0) Thread.sleep(1);
+        }
+    }
+
+    /** Body of the next response, which must have status {@code status} and a Content-Length. */
+    private static String readResponse(InputStream in, int status) throws IOException {
+        String statusLine = line(in);
+        assertTrue(statusLine.startsWith("HTTP/1.1 " + status + " "), statusLine);
+        int length = -1;
+        for (String h; !(h = line(in)).isEmpty(); ) {
+            if (h.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Integer.parseInt(h.substring(15).trim());
+        }
+        assertTrue(length >= 0, "no Content-Length");
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) throw new EOFException();
+        return new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static String line(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c; (c = in.read()) != '\n'; ) {
+            if (c < 0) throw new EOFException("EOF after \"" + sb + "\"");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] concat(List<Exchange> mix) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Exchange e : mix) out.writeBytes(e.request());
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String s) { return s.getBytes(StandardCharsets.US_ASCII); }
+}
@@ -0,0 +1,81 @@
+package com.example.loop;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private static final long MS = 1_000_000L;
+    private static final long ORIGIN = 1_000_000_000L;
+
+    private static long at(long ms) { return ORIGIN + ms * MS; }
+
+    @Test void firesAtTheDeadlineAndNotBefore() {
+        TimingWheel w = new TimingWheel(ORIGIN);
+        List<String> fired = new ArrayList<>();
+        w.schedule(5, () -> fired.add("a"));
+        w.schedule(700, () -> fired.add("b")); // more than one revolution out
+        w.advance(at(4));
+        assertEquals(List.of(), fired);
+        w.advance(at(5));
+        assertEquals(List.of("a"), fired);
+        w.advance(at(5 + 512));
+        assertEquals(List.of("a"), fired, "same slot, later revolution");
+        w.advance(at(700));
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(0, w.size());
+    }
+
+    @Test void untilNextMatchesTheNearestSlot() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            TimingWheel w = new TimingWheel(ORIGIN);
+            w.advance(at(rnd.nextInt(5000)));
+            assertEquals(-1, w.untilNext());
+            long nearest = Long.MAX_VALUE;
+            for (int i = 0, n = 1 + rnd.nextInt(4); i < n; i++) {
+                long delay = 1 + rnd.nextInt(1500);
+                w.schedule(delay, () -> {});
+                nearest = Math.min(nearest, delay > 512 ? (delay - 1) % 512 + 1 : delay);
+            }
+            assertEquals(nearest, w.untilNext(), "round " + round);
+        }
+    }
+
+    @Test void tasksMayReArmOrCancelTimersOfTheSlotBeingFired() {
+        TimingWheel w = new TimingWheel(ORIGIN);
+        List<String> fired = new ArrayList<>();
+        TimingWheel.Timer[] t = new TimingWheel.Timer[4];
+        t[3] = w.schedule(10, () -> fired.add("d"));
+        t[2] = w.schedule(10, () -> fired.add("c"));
+        t[1] = w.schedule(10, () -> {
+            fired.add("b");
+            w.arm(t[2], 3); // moved to another slot before it fired
+            w.cancel(t[3]);
+        });
+        t[0] = w.schedule(10, () -> fired.add("a"));
+        w.advance(at(10));
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(1, w.size());
+        assertEquals(3, w.untilNext());
+        w.advance(at(13));
+        assertEquals(List.of("a", "b", "c"), fired);
+        assertEquals(-1, w.untilNext());
+    }
+
+    @Test void timerReArmedByItsOwnTaskFiresAgain() {
+        TimingWheel w = new TimingWheel(ORIGIN);
+        int[] count = {0};
+        TimingWheel.Timer[] self = new TimingWheel.Timer[1];
+        self[0] = w.schedule(1, () -> {
+            if (++count[0] < 3) w.arm(self[0], 1);
+        });
+        for (long ms = 1; ms <= 10; ms++) w.advance(at(ms));
+        assertEquals(3, count[0]);
+        assertEquals(0, w.size());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.virtual;
+
+import com.example.common.Endpoints;
+import com.example.common.Handler;
+import com.example.common.Listeners;
+import com.example.common.Metrics;
+import com.example.common.RequestLoop;
+import com.example.common.Router;
+import com.example.common.Trace;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Blocking connection-per-thread server like {@code MultiServer}, but every connection gets its own
+ * virtual thread, so the thread count is never the limit. Concurrency is bounded instead by the number
+ * of requests in a handler at once; idle keep-alive connections do not count against it.
+ */
+public class VirtualServer {
+    private static final LongAdder ACCEPTED = Metrics.SHARED.counter("connections_accepted", "Connections accepted.");
+    private static final LongAdder REJECTED = Metrics.SHARED.counter("rejected", "Requests turned away with 503.");
+    private static final LongAdder ACTIVE = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8084;
+        // Requests allowed inside route() at once; 0 = unlimited
+        int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        // How long a request may wait for a permit before it is turned away with 503
+        long permitWaitMs = Long.getLong("server.virtual.permitWaitMs", 1000);
+        Semaphore permits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        Metrics.SHARED.gauge("connections_active", "Open connections, one virtual thread each.", ACTIVE::sum);
+        if (permits != null) {
+            Metrics.SHARED.gauge("permits_available", "In-flight permits not currently held.", permits::availablePermits);
+        }
+        ThreadFactory factory = Thread.ofVirtual().name("conn-", 0).factory();
+        // Sharded (-Pserver.shards=K): K listeners, each drained by its own accept thread; connections
+        // still share one executor and one permit pool
+        ServerSocket[] listeners = new ServerSocket[Listeners.SHARDS];
+        for (int i = 0; i < listeners.length; i++) listeners[i] = Listeners.serverSocket(port, 4096);
+        RequestLoop requests = requests(permits, permitWaitMs);
+        try (ExecutorService perConnection = Executors.newThreadPerTaskExecutor(factory)) {
+            System.out.println("[virtual-threads] Listening on port " + port + " with "
+                    + (permits == null ? "no" : String.valueOf(maxInFlight)) + " in-flight limit"
+                    + (listeners.length > 1 ? " across " + listeners.length + " SO_REUSEPORT shards" : ""));
+            for (int i = 1; i < listeners.length; i++) {
+                ServerSocket listener = listeners[i];
+                new Thread(() -> accept(listener, perConnection, requests), "acceptor-" + i).start();
+            }
+            accept(listeners[0], perConnection, requests);
+        }
+    }
+
+    private static void accept(ServerSocket server, ExecutorService perConnection, RequestLoop requests) {
+        try (server) {
+            while (true) {
+                Socket sock = Listeners.accept(server);
+                ACCEPTED.increment();
+                long connId = Trace.nextId();
+                Trace.accepted(connId);
+                perConnection.execute(() -> {
+                    ACTIVE.increment();
+                    try (Socket s = sock) {
+                        requests.serve(s, connId, -1);
+                    } catch (IOException e) {
+                        // ignore noisy errors from clients closing
+                    } finally {
+                        ACTIVE.decrement();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.err.println("Listener failed: " + e.getMessage());
+        }
+    }
+
+    private static final Router ROUTER = Endpoints.standard().build();
+
+    /** Requests bounded by {@code permits} (null: unbounded), each waiting up to {@code permitWaitMs} for one. */
+    private static RequestLoop requests(Semaphore permits, long permitWaitMs) {
+        if (permits == null) return new RequestLoop(ROUTER, RequestLoop.Hooks.NONE);
+        return new RequestLoop(ROUTER, new RequestLoop.Hooks() {
+            // Sync handlers (/echo, /metrics) answer at once: no handler work to bound, so no permit
+            @Override public boolean gated(Router.Endpoint ep) { return ep.handler() instanceof Handler.Async; }
+
+            @Override public String queue() { return "permits"; }
+
+            @Override public boolean admit() throws InterruptedException {
+                if (permits.tryAcquire(permitWaitMs, TimeUnit.MILLISECONDS)) return true;
+                REJECTED.increment();
+                return false;
+            }
+
+            @Override public void release() { permits.release(); }
+        });
+    }
+}